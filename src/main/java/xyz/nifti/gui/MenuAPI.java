@@ -1,18 +1,34 @@
 package xyz.nifti.gui;
 
+import org.bukkit.configuration.Configuration;
+import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.inventory.ItemStack;
+import xyz.nifti.gui.buttons.ButtonDefinition;
 import xyz.nifti.gui.buttons.SGButton;
+import xyz.nifti.gui.item.IconCache;
+import xyz.nifti.gui.item.SkullCache;
 import xyz.nifti.gui.item.ItemBuilder;
+import xyz.nifti.gui.menu.OpenMenuRegistry;
 import xyz.nifti.gui.menu.SGMenuListener;
 import xyz.nifti.gui.menu.SGOpenMenu;
 import xyz.nifti.gui.pagination.SGPaginationButtonBuilder;
+import xyz.nifti.gui.render.IconScheduler;
+import xyz.nifti.gui.render.RenderBatch;
 import org.bukkit.Material;
-import org.bukkit.entity.Player;
 import org.bukkit.inventory.Inventory;
 import org.bukkit.plugin.java.JavaPlugin;
 
-import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Fork of comprehensive GUI API for Spigot with pages support.
@@ -26,6 +42,65 @@ import java.util.List;
 public class MenuAPI {
     private static JavaPlugin instance;
 
+    /**
+     * The batch used to apply icons that were resolved off the main thread.
+     * <p>
+     * All asynchronously resolved icons are written by one main-thread task per tick,
+     * instead of one task per slot.
+     */
+    private static RenderBatch renderBatch;
+
+    /**
+     * The executor asynchronous icons are resolved on.
+     * <p>
+     * This is a bounded pool owned by the library, so resolving icons never competes with
+     * the rest of the server for the common ForkJoin pool. By default, it has one thread
+     * per spare core (every core but the one used by the main thread), and idle threads are
+     * released after a minute.
+     *
+     * @see #setIconThreads(int)
+     */
+    private static ThreadPoolExecutor iconExecutor;
+
+    /**
+     * The scheduler icon jobs are queued with before they're run on the {@link #iconExecutor icon executor}.
+     * <p>
+     * It bounds the number of icon jobs in flight - by default, twice the number of icon
+     * threads - and starts queued jobs in turn between menus, so one large menu can't starve
+     * the others. Queued jobs of a menu are cancelled once it is no longer displayed.
+     *
+     * @see #setMaxIconJobs(int)
+     */
+    private static IconScheduler iconScheduler;
+
+    /**
+     * The cache used to share equal icons between buttons and menus.
+     * <p>
+     * Icons the library keeps to itself (i.e. those of buttons built from config) are interned
+     * here, so identical icons are stored once, while callers are always handed copies.
+     * By default, up to 2048 distinct icons are kept.
+     */
+    private static final IconCache iconCache = new IconCache(2048);
+
+    /**
+     * How long icons may take to resolve, in milliseconds, before the slot displays
+     * the {@link #timeoutIcon timeout icon} instead (0 to wait indefinitely).
+     * <p>
+     * This is 5 seconds by default, and it can be overridden per-inventory. The real icon
+     * still replaces the timeout icon if it resolves later on. This global value (never the
+     * per-inventory one) also bounds how long {@link SGButton#getIcon()} waits for a pending icon.
+     */
+    private static volatile long iconTimeout = 5000;
+
+    /**
+     * The cache of resolved player head owners.
+     * <p>
+     * Heads built by {@link xyz.nifti.gui.item.AsyncItemBuilder} resolve their owner through
+     * this cache, so each owner is resolved once rather than once per head. By default, up to
+     * 512 owners are kept for 10 minutes.
+     */
+    private static final SkullCache skullCache = new SkullCache(512, 10, TimeUnit.MINUTES);
+
     /**
      * Whether the inventory click actions should be
      * cancelled by default.
@@ -52,6 +127,47 @@ public class MenuAPI {
      */
     private boolean enableAutomaticPagination = false;
 
+    /**
+     * Whether refreshes should only update the slots that changed.
+     * <p>
+     * This is set to true by default, and it means {@link SGMenu#refreshInventory(org.bukkit.entity.HumanEntity)}
+     * remembers the icons last sent to each viewer and only calls {@link Inventory#setItem(int, ItemStack)}
+     * for the slots whose icon differs, rather than re-sending the whole window.
+     */
+    private boolean enableIncrementalRefresh = true;
+
+    /**
+     * Whether icons still being resolved for a page should be cancelled when the page is
+     * no longer displayed.
+     * <p>
+     * This is set to true by default. Icons that complete after their page was replaced are
+     * always dropped; with this enabled, renders also stop waiting for them, so icons built by a
+     * {@link java.util.function.Supplier supplier} that nothing else is waiting for aren't
+     * built at all (until they're displayed again).
+     */
+    private boolean cancelStaleIcons = true;
+
+    /**
+     * Whether the icons of the pages before and after the displayed page should be
+     * resolved in the background.
+     * <p>
+     * This is set to false by default. When enabled, rendering a page of a paginated menu
+     * starts resolving the icons of its adjacent pages (up to the menu's prefetch budget,
+     * see {@link SGMenu#setPrefetchBudget(int)}), so flipping pages shows them straight away.
+     */
+    private boolean prefetchAdjacentPages = false;
+
+    /**
+     * The icon displayed in place of icons that didn't resolve within the {@link #iconTimeout icon timeout}.
+     * If this isn't set, the {@link #defaultIcon default icon} is used.
+     */
+    private ItemStack timeoutIcon;
+
+    /**
+     * The number of icons, across all menus, that didn't resolve within the icon timeout.
+     */
+    private final AtomicLong iconTimeouts = new AtomicLong();
+
     /**
      * The defaultPaginationButtonBuilder is the plugin-wide {@link SGPaginationButtonBuilder}
      * called when building pagination buttons for inventory GUIs.
@@ -113,6 +229,24 @@ public class MenuAPI {
      */
     private ItemStack defaultIcon = new ItemBuilder(Material.BARRIER).customModelData(2).build();
 
+    /**
+     * The registry of open menus, indexed by viewer, menu and tag.
+     * <p>
+     * This is kept up to date by the {@link SGMenuListener} as menus are opened and closed,
+     * so looking up open menus doesn't have to inspect every online player.
+     */
+    private final OpenMenuRegistry openMenus = new OpenMenuRegistry();
+
+    /**
+     * The compiled {@link ButtonDefinition button definitions}, by the path of their section,
+     * for each configuration they were read from.
+     * <p>
+     * Configurations are weakly referenced, so reloading a plugin's config (which creates a new
+     * configuration) naturally stops using the old definitions. Configurations that are reloaded
+     * in place must call {@link #invalidateButtonDefinitions()}.
+     */
+    private final Map<Configuration, Map<String, ButtonDefinition>> buttonDefinitions = new WeakHashMap<>();
+
     /**
      * Creates an instance of the SpiGUI library associated with a given plugin.
      * <br><br>
@@ -149,7 +283,19 @@ public class MenuAPI {
      * @param plugin The plugin using SpiGUI.
      */
     public MenuAPI(JavaPlugin plugin) {
-        instance = plugin;
+        // The shared services are only created once (and again once they've been shut down),
+        // so creating another MenuAPI doesn't leave the threads of the previous executor behind.
+        synchronized (MenuAPI.class) {
+            if (renderBatch == null || instance != plugin)
+                renderBatch = new RenderBatch(plugin);
+
+            if (iconExecutor == null || iconExecutor.isShutdown()) {
+                iconExecutor = createIconExecutor(plugin, Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+                iconScheduler = new IconScheduler(iconExecutor, iconExecutor.getMaximumPoolSize() * 2);
+            }
+
+            instance = plugin;
+        }
 
         plugin.getServer().getPluginManager().registerEvents(
             new SGMenuListener(plugin, this), plugin
@@ -244,6 +390,81 @@ public class MenuAPI {
         return defaultIcon;
     }
 
+    /**
+     * Returns the compiled definition of the button described by the specified section,
+     * compiling it only if it isn't cached yet.
+     *
+     * @param config The section describing the button.
+     * @return The button definition.
+     *
+     * @see MenuAPI#buttonDefinitions
+     */
+    public synchronized ButtonDefinition getButtonDefinition(ConfigurationSection config) {
+        Configuration root = config.getRoot();
+        if (root == null) return ButtonDefinition.compile(config);
+
+        return buttonDefinitions.computeIfAbsent(root, key -> new HashMap<>())
+                .computeIfAbsent(config.getCurrentPath(), path -> ButtonDefinition.compile(config));
+    }
+
+    /**
+     * Discards every compiled button definition, so they are compiled again from their sections.
+     * <p>
+     * This should be called after reloading a configuration in place.
+     *
+     * @see MenuAPI#buttonDefinitions
+     */
+    public synchronized void invalidateButtonDefinitions() {
+        buttonDefinitions.clear();
+    }
+
+    /**
+     * @see MenuAPI#timeoutIcon
+     *
+     * @param timeoutIcon The icon displayed in place of icons that take too long to resolve, or null for the default icon.
+     */
+    public void setTimeoutIcon(ItemStack timeoutIcon) {
+        this.timeoutIcon = timeoutIcon;
+    }
+
+    /**
+     * @see MenuAPI#timeoutIcon
+     *
+     * @return The icon displayed in place of icons that take too long to resolve.
+     */
+    public ItemStack getTimeoutIcon() {
+        return timeoutIcon != null ? timeoutIcon : defaultIcon;
+    }
+
+    /**
+     * The timeout is global, like {@link #getIconTimeout()}, as it also bounds {@link SGButton#getIcon()}.
+     *
+     * @see MenuAPI#iconTimeout
+     *
+     * @param iconTimeout How long icons may take to resolve, in milliseconds, or 0 to wait indefinitely.
+     */
+    public static void setIconTimeout(long iconTimeout) {
+        MenuAPI.iconTimeout = iconTimeout;
+    }
+
+    /**
+     * Returns the number of icons, across all menus of this plugin, that didn't resolve
+     * within the icon timeout. This is useful to find slow icon sources.
+     *
+     * @see SGMenu#getIconTimeouts()
+     * @return The number of icons that timed out.
+     */
+    public long getIconTimeouts() {
+        return iconTimeouts.get();
+    }
+
+    /**
+     * Records that an icon didn't resolve within the icon timeout.
+     */
+    void recordIconTimeout() {
+        iconTimeouts.incrementAndGet();
+    }
+
     /**
      * @see MenuAPI#blockDefaultInteractions
      *
@@ -280,6 +501,60 @@ public class MenuAPI {
         return enableAutomaticPagination;
     }
 
+    /**
+     * @see MenuAPI#enableIncrementalRefresh
+     *
+     * @param enableIncrementalRefresh Whether or not refreshes should only update changed slots.
+     */
+    public void setEnableIncrementalRefresh(boolean enableIncrementalRefresh) {
+        this.enableIncrementalRefresh = enableIncrementalRefresh;
+    }
+
+    /**
+     * Returns the value of {@link MenuAPI#enableIncrementalRefresh} for this plugin.
+     *
+     * @return Whether or not refreshes should only update changed slots.
+     */
+    public boolean isIncrementalRefreshEnabled() {
+        return enableIncrementalRefresh;
+    }
+
+    /**
+     * @see MenuAPI#cancelStaleIcons
+     *
+     * @param cancelStaleIcons Whether or not icons of pages that are no longer displayed should be cancelled.
+     */
+    public void setCancelStaleIcons(boolean cancelStaleIcons) {
+        this.cancelStaleIcons = cancelStaleIcons;
+    }
+
+    /**
+     * Returns the value of {@link MenuAPI#cancelStaleIcons} for this plugin.
+     *
+     * @return Whether or not icons of pages that are no longer displayed are cancelled.
+     */
+    public boolean areStaleIconsCancelled() {
+        return cancelStaleIcons;
+    }
+
+    /**
+     * @see MenuAPI#prefetchAdjacentPages
+     *
+     * @param prefetchAdjacentPages Whether or not the icons of adjacent pages should be resolved in the background.
+     */
+    public void setPrefetchAdjacentPages(boolean prefetchAdjacentPages) {
+        this.prefetchAdjacentPages = prefetchAdjacentPages;
+    }
+
+    /**
+     * Returns the value of {@link MenuAPI#prefetchAdjacentPages} for this plugin.
+     *
+     * @return Whether or not the icons of adjacent pages are resolved in the background.
+     */
+    public boolean isAdjacentPagePrefetchEnabled() {
+        return prefetchAdjacentPages;
+    }
+
     /**
      * @see MenuAPI#defaultPaginationButtonBuilder
      *
@@ -298,6 +573,68 @@ public class MenuAPI {
         return defaultPaginationButtonBuilder;
     }
 
+    /**
+     * Sets the number of threads of the {@link MenuAPI#iconExecutor icon executor}.
+     * <p>
+     * This also resets the maximum number of icon jobs in flight (see {@link #setMaxIconJobs(int)})
+     * to twice the number of threads, so the new threads are kept busy.
+     *
+     * @param threads The maximum number of icons resolved concurrently, at least 1.
+     */
+    public void setIconThreads(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("Icon executor must have at least one thread!");
+
+        // Grow the maximum first, so the core size never exceeds it.
+        if (threads > iconExecutor.getMaximumPoolSize()) {
+            iconExecutor.setMaximumPoolSize(threads);
+            iconExecutor.setCorePoolSize(threads);
+        } else {
+            iconExecutor.setCorePoolSize(threads);
+            iconExecutor.setMaximumPoolSize(threads);
+        }
+
+        iconScheduler.setMaxInFlight(threads * 2);
+    }
+
+    /**
+     * Returns the number of threads of the {@link MenuAPI#iconExecutor icon executor}.
+     *
+     * @return The maximum number of icons resolved concurrently.
+     */
+    public int getIconThreads() {
+        return iconExecutor.getMaximumPoolSize();
+    }
+
+    /**
+     * Sets the maximum number of icon jobs handed to the {@link MenuAPI#iconExecutor icon executor}
+     * at once. Further jobs wait in the {@link MenuAPI#iconScheduler icon scheduler}.
+     *
+     * @param maxIconJobs The maximum number of icon jobs in flight, at least 1.
+     */
+    public void setMaxIconJobs(int maxIconJobs) {
+        iconScheduler.setMaxInFlight(maxIconJobs);
+    }
+
+    /**
+     * @see MenuAPI#iconScheduler
+     *
+     * @return The maximum number of icon jobs in flight.
+     */
+    public int getMaxIconJobs() {
+        return iconScheduler.getMaxInFlight();
+    }
+
+    /**
+     * Stops the library's background work, discarding any icons that are still being resolved.
+     * <p>
+     * This is called automatically when the plugin that created the {@link MenuAPI} is disabled.
+     */
+    public void shutdown() {
+        iconScheduler.cancelAll();
+        iconExecutor.shutdownNow();
+    }
+
     /**
      * Finds a list of all open inventories with a given tag along with the
      * player who has that inventory open.
@@ -311,28 +648,100 @@ public class MenuAPI {
      * @return A list of {@link SGOpenMenu} whose inventories have the specified tag.
      */
     public List<SGOpenMenu> findOpenWithTag(String tag) {
-        List<SGOpenMenu> foundInventories = new ArrayList<>();
-
-        // Loop through every online player...
-        for (Player player : getPlugin().getServer().getOnlinePlayers()) {
-            // ...get that top inventory.
-            Inventory topInventory = player.getOpenInventory().getTopInventory();
-
-            // If the top inventory is an SGMenu,
-            if (topInventory.getHolder() != null && topInventory.getHolder() instanceof SGMenu inventory) {
-                // and the SGMenu has the tag matching the one we're checking for,
-                if (inventory.getTag().equals(tag))
-                    // add the SGMenu to our list of found inventories.
-                    foundInventories.add(new SGOpenMenu(inventory, player));
-            }
-        }
+        return openMenus.findByTag(tag);
+    }
 
-        return foundInventories;
+    /**
+     * Finds a list of every player viewing the specified menu.
+     *
+     * @param menu The menu to search for.
+     * @return A list of {@link SGOpenMenu} for each viewer of the menu.
+     */
+    public List<SGOpenMenu> findOpen(SGMenu menu) {
+        return openMenus.findByMenu(menu);
+    }
 
+    /**
+     * @see MenuAPI#openMenus
+     *
+     * @return The registry of open menus.
+     */
+    public OpenMenuRegistry getOpenMenus() {
+        return openMenus;
     }
 
     public static JavaPlugin getPlugin() {
         return instance;
     }
 
+    /**
+     * @see MenuAPI#renderBatch
+     *
+     * @return The batch used to apply asynchronously resolved icons.
+     */
+    public static RenderBatch getRenderBatch() {
+        return renderBatch;
+    }
+
+    /**
+     * @see MenuAPI#iconExecutor
+     *
+     * @return The executor asynchronous icons are resolved on.
+     */
+    public static ExecutorService getIconExecutor() {
+        return iconExecutor;
+    }
+
+    /**
+     * @see MenuAPI#iconScheduler
+     *
+     * @return The scheduler icon jobs are queued with.
+     */
+    public static IconScheduler getIconScheduler() {
+        return iconScheduler;
+    }
+
+    /**
+     * @see MenuAPI#iconCache
+     *
+     * @return The cache used to share equal icons.
+     */
+    public static IconCache getIconCache() {
+        return iconCache;
+    }
+
+    /**
+     * @see MenuAPI#iconTimeout
+     *
+     * @return How long icons may take to resolve, in milliseconds (0 meaning indefinitely).
+     */
+    public static long getIconTimeout() {
+        return iconTimeout;
+    }
+
+    /**
+     * @see MenuAPI#skullCache
+     *
+     * @return The cache of resolved player head owners.
+     */
+    public static SkullCache getSkullCache() {
+        return skullCache;
+    }
+
+    private static ThreadPoolExecutor createIconExecutor(JavaPlugin plugin, int threads) {
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, plugin.getName() + "-MenuAPI-Icon-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), threadFactory
+        );
+        executor.allowCoreThreadTimeOut(true);
+
+        return executor;
+    }
+
 }
@@ -1,17 +1,20 @@
 package xyz.nifti.gui;
 
-import org.bukkit.Material;
 import org.bukkit.configuration.ConfigurationSection;
 import xyz.nifti.gui.buttons.SGButton;
+import xyz.nifti.gui.buttons.SGButtonProvider;
 import xyz.nifti.gui.buttons.SGClickListener;
 import xyz.nifti.gui.buttons.SGCloseListener;
 import xyz.nifti.gui.buttons.SGDragItemListener;
-import xyz.nifti.gui.item.ItemBuilder;
 import xyz.nifti.gui.menu.CloseStatus;
+import xyz.nifti.gui.menu.SGOpenMenu;
+import xyz.nifti.gui.menu.SlotStore;
 import xyz.nifti.gui.pagination.SGPaginationButtonBuilder;
+import xyz.nifti.gui.pagination.SGPaginationButtonCache;
 import xyz.nifti.gui.pagination.SGPaginationButtonType;
+import xyz.nifti.gui.render.RenderedPage;
+import xyz.nifti.gui.text.ColorTranslator;
 import org.bukkit.Bukkit;
-import org.bukkit.ChatColor;
 import org.bukkit.entity.HumanEntity;
 import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.InventoryHolder;
@@ -19,8 +22,12 @@ import org.bukkit.inventory.ItemStack;
 import org.bukkit.plugin.java.JavaPlugin;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
-import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * SGMenu is used to implement the library's GUIs.
@@ -41,6 +48,9 @@ import java.util.stream.Collectors;
 @SuppressWarnings("unused")
 public class SGMenu implements InventoryHolder {
 
+    /** Marks a slot that was left empty because its icon was still being resolved (or failed) when it was last refreshed. */
+    private static final Object PENDING_ICON = new Object();
+
     private final JavaPlugin owner;
     private final MenuAPI menuAPI;
 
@@ -48,15 +58,98 @@ public class SGMenu implements InventoryHolder {
     private String tag;
     private int rowsPerPage;
 
-    private final Map<Integer, SGButton> items;
-    private final HashSet<Integer> stickiedSlots;
-    private final HashSet<Integer> editableSlots;
+    private final SlotStore items;
+    /** The stickied and editable slots, as bit masks indexed by slot (a page has at most 54 slots). */
+    private long stickiedSlots;
+    private long editableSlots;
 
     private int currentPage;
+
+    /**
+     * The page each viewer is on, keyed by the viewer's UUID. Viewers without an entry are
+     * on {@link #currentPage}, which serves as the default page.
+     */
+    private final Map<UUID, Integer> viewerPages;
+
+    /**
+     * The page being rendered (or changed to), so that {@link #getCurrentPage()} returns the
+     * page of the viewer in question while pagination buttons and page change listeners run.
+     */
+    private Integer contextPage;
     private Boolean blockDefaultInteractions;
     private Boolean enableAutomaticPagination;
+    private Boolean enableIncrementalRefresh;
+    private Boolean cancelStaleIcons;
+    private Boolean prefetchAdjacentPages;
+
+    /**
+     * The maximum number of icons of adjacent pages this menu resolves in the background
+     * at once, and the buttons whose icons are currently being prefetched.
+     */
+    private int prefetchBudget = 54;
+    private final Set<SGButton> prefetching = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The icons last written into each inventory of this menu. Used by
+     * {@link #refreshInventory(HumanEntity)} to only update slots whose icon actually changed.
+     */
+    private final Map<Inventory, Object[]> refreshSnapshots;
+
+    /**
+     * The viewers whose refresh was requested with {@link #requestRefresh(HumanEntity)}, keyed by
+     * UUID, and whether the task refreshing them has been scheduled.
+     */
+    private final Map<UUID, HumanEntity> refreshRequests = new ConcurrentHashMap<>();
+    private final AtomicBoolean refreshScheduled = new AtomicBoolean(false);
+
+    /**
+     * The page last rendered into each inventory of this menu, used to route clicks.
+     * Entries are removed once the inventory has been closed by all of its viewers.
+     */
+    private final Map<Inventory, RenderedPage> renderedPages;
+
+    /**
+     * The icon writes still pending for the last render of each inventory of this menu.
+     * They are cancelled when the inventory is rendered again or discarded.
+     */
+    private final Map<Inventory, PendingRender> pendingWrites;
+
+    /**
+     * How long icons may take to resolve before the slot shows {@link #timeoutIcon} instead,
+     * in milliseconds, and the number of icons of this menu that timed out.
+     */
+    private Long iconTimeout;
+    private ItemStack timeoutIcon;
+    private long iconTimeouts;
+
+    /** The deadline (in {@link System#nanoTime()} terms) of the timeout check scheduled for each inventory. */
+    private final Map<Inventory, Long> timeoutChecks;
+
+    /**
+     * Whether each viewer gets an inventory of their own. If not, all viewers of a page
+     * share the single inventory stored here, keyed by page.
+     */
+    private boolean perPlayerContent;
+    private final Map<Integer, SharedInventory> sharedInventories;
+
+    /**
+     * Supplies the entries of a virtual menu, see {@link #setButtonProvider(SGButtonProvider)}.
+     * Materialized entries are kept in a small access-ordered cache, keyed by entry index.
+     */
+    private SGButtonProvider buttonProvider;
+    private int buttonProviderCacheSize = 3 * 54;
+    private final LinkedHashMap<Integer, SGButton> providedButtons;
+
+    /**
+     * Maps each slot of a page to its position among the page's content slots (or -1),
+     * for virtual menus. Rebuilt when the stickied slots, page size or pagination change.
+     */
+    private int[] contentSlots;
+    private int contentSlotsPerPage;
+    private boolean contentSlotsPaginated;
 
     private SGPaginationButtonBuilder paginationButtonBuilder;
+    private final SGPaginationButtonCache paginationButtons;
     private SGCloseListener onClose;
     private CloseStatus closeStatus = CloseStatus.DEFAULT;
     private SGClickListener onClick;
@@ -76,15 +169,26 @@ public class SGMenu implements InventoryHolder {
     SGMenu(JavaPlugin owner, MenuAPI menuAPI, String name, int rowsPerPage, String tag) {
         this.owner = owner;
         this.menuAPI = menuAPI;
-        this.name = ChatColor.translateAlternateColorCodes('&', name);
+        this.name = ColorTranslator.translate(name);
         this.rowsPerPage = rowsPerPage;
         this.tag = tag;
 
-        this.items = new HashMap<>();
-        this.stickiedSlots = new HashSet<>();
-        this.editableSlots = new HashSet<>();
+        this.items = new SlotStore();
+        this.refreshSnapshots = new HashMap<>();
+        this.renderedPages = new HashMap<>();
+        this.pendingWrites = new HashMap<>();
+        this.timeoutChecks = new HashMap<>();
+        this.sharedInventories = new HashMap<>();
+        this.paginationButtons = new SGPaginationButtonCache();
+        this.providedButtons = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, SGButton> eldest) {
+                return size() > buttonProviderCacheSize;
+            }
+        };
 
         this.currentPage = 0;
+        this.viewerPages = new HashMap<>();
     }
 
     /// INVENTORY SETTINGS ///
@@ -130,6 +234,164 @@ public class SGMenu implements InventoryHolder {
         return enableAutomaticPagination;
     }
 
+    /**
+     * This is a per-inventory version of {@link MenuAPI#setEnableIncrementalRefresh(boolean)}.
+     * If this value is set, it overrides the per-plugin option set in {@link MenuAPI}.
+     *
+     * @see MenuAPI#setEnableIncrementalRefresh(boolean)
+     * @param enableIncrementalRefresh Whether or not refreshes should only update changed slots.
+     */
+    public void setIncrementalRefreshEnabled(boolean enableIncrementalRefresh) {
+        this.enableIncrementalRefresh = enableIncrementalRefresh;
+    }
+
+    /**
+     * This is a per-inventory version of {@link MenuAPI#isIncrementalRefreshEnabled()}.
+     *
+     * @see MenuAPI#isIncrementalRefreshEnabled()
+     * @return Whether or not refreshes should only update changed slots.
+     */
+    public Boolean isIncrementalRefreshEnabled() {
+        return enableIncrementalRefresh;
+    }
+
+    /**
+     * Sets whether each viewer should get an inventory of their own.
+     * <br><br>
+     * By default, every viewer of the same page opens one shared, rendered inventory, so a
+     * menu viewed by many players is only rendered once and updates are applied once for all
+     * of them. Set this to true if the menu's content differs per player (for example, if your
+     * buttons' icons depend on who is viewing them). Menus with editable slots always use
+     * per-player inventories.
+     *
+     * @param perPlayerContent Whether each viewer should get an inventory of their own.
+     */
+    public void setPerPlayerContent(boolean perPlayerContent) {
+        this.perPlayerContent = perPlayerContent;
+    }
+
+    /**
+     * @see #setPerPlayerContent(boolean)
+     * @return Whether each viewer gets an inventory of their own.
+     */
+    public boolean hasPerPlayerContent() {
+        return perPlayerContent;
+    }
+
+    /**
+     * This is a per-inventory version of {@link MenuAPI#setPrefetchAdjacentPages(boolean)}.
+     * If this value is set, it overrides the per-plugin option set in {@link MenuAPI}.
+     *
+     * @see MenuAPI#setPrefetchAdjacentPages(boolean)
+     * @param prefetchAdjacentPages Whether or not the icons of adjacent pages should be resolved in the background.
+     */
+    public void setPrefetchAdjacentPages(boolean prefetchAdjacentPages) {
+        this.prefetchAdjacentPages = prefetchAdjacentPages;
+    }
+
+    /**
+     * This is a per-inventory version of {@link MenuAPI#isAdjacentPagePrefetchEnabled()}.
+     *
+     * @see MenuAPI#isAdjacentPagePrefetchEnabled()
+     * @return Whether or not the icons of adjacent pages are resolved in the background.
+     */
+    public Boolean isAdjacentPagePrefetchEnabled() {
+        return prefetchAdjacentPages;
+    }
+
+    /**
+     * Sets the maximum number of icons of adjacent pages that are resolved in the background
+     * at once, when prefetching is enabled (see {@link #setPrefetchAdjacentPages(boolean)}).
+     * <br><br>
+     * This defaults to one page of the largest size.
+     *
+     * @param prefetchBudget The maximum number of icons prefetched at once.
+     */
+    public void setPrefetchBudget(int prefetchBudget) {
+        this.prefetchBudget = prefetchBudget;
+    }
+
+    /**
+     * @see #setPrefetchBudget(int)
+     * @return The maximum number of icons prefetched at once.
+     */
+    public int getPrefetchBudget() {
+        return prefetchBudget;
+    }
+
+    /**
+     * This is a per-inventory version of {@link MenuAPI#setIconTimeout(long)}.
+     * If this value is set, it overrides the per-plugin option set in {@link MenuAPI}.
+     *
+     * @see MenuAPI#setIconTimeout(long)
+     * @param iconTimeout How long icons may take to resolve, in milliseconds, or 0 to wait indefinitely.
+     */
+    public void setIconTimeout(long iconTimeout) {
+        this.iconTimeout = iconTimeout;
+    }
+
+    /**
+     * This is a per-inventory version of {@link MenuAPI#getIconTimeout()}.
+     *
+     * @see MenuAPI#getIconTimeout()
+     * @return How long icons may take to resolve, in milliseconds.
+     */
+    public Long getIconTimeout() {
+        return iconTimeout;
+    }
+
+    /**
+     * This is a per-inventory version of {@link MenuAPI#setTimeoutIcon(ItemStack)}.
+     * If this value is set, it overrides the per-plugin option set in {@link MenuAPI}.
+     *
+     * @see MenuAPI#setTimeoutIcon(ItemStack)
+     * @param timeoutIcon The icon displayed in place of icons that take too long to resolve.
+     */
+    public void setTimeoutIcon(ItemStack timeoutIcon) {
+        this.timeoutIcon = timeoutIcon;
+    }
+
+    /**
+     * This is a per-inventory version of {@link MenuAPI#getTimeoutIcon()}.
+     *
+     * @see MenuAPI#getTimeoutIcon()
+     * @return The icon displayed in place of icons that take too long to resolve.
+     */
+    public ItemStack getTimeoutIcon() {
+        return timeoutIcon;
+    }
+
+    /**
+     * Returns the number of icons of this menu that didn't resolve within the icon timeout
+     * (see {@link #setIconTimeout(long)}), which is useful to find slow icon sources.
+     *
+     * @return The number of icons that timed out.
+     */
+    public long getIconTimeouts() {
+        return iconTimeouts;
+    }
+
+    /**
+     * This is a per-inventory version of {@link MenuAPI#setCancelStaleIcons(boolean)}.
+     * If this value is set, it overrides the per-plugin option set in {@link MenuAPI}.
+     *
+     * @see MenuAPI#setCancelStaleIcons(boolean)
+     * @param cancelStaleIcons Whether or not icons of pages that are no longer displayed should be cancelled.
+     */
+    public void setCancelStaleIcons(boolean cancelStaleIcons) {
+        this.cancelStaleIcons = cancelStaleIcons;
+    }
+
+    /**
+     * This is a per-inventory version of {@link MenuAPI#areStaleIconsCancelled()}.
+     *
+     * @see MenuAPI#areStaleIconsCancelled()
+     * @return Whether or not icons of pages that are no longer displayed are cancelled.
+     */
+    public Boolean areStaleIconsCancelled() {
+        return cancelStaleIcons;
+    }
+
     /**
      * This is a per-inventory version of ({@link MenuAPI#setDefaultPaginationButtonBuilder(SGPaginationButtonBuilder)}).
      *
@@ -226,7 +488,11 @@ public class SGMenu implements InventoryHolder {
      * @param tag The GUI's tag.
      */
     public void setTag(String tag) {
+        String oldTag = this.tag;
         this.tag = tag;
+
+        // Keep the tag index of open menus in sync.
+        menuAPI.getOpenMenus().retag(this, oldTag, tag);
     }
 
     /// INVENTORY NAME ///
@@ -241,7 +507,7 @@ public class SGMenu implements InventoryHolder {
      * @param name The display name to set. (and to be color code translated)
      */
     public void setName(String name) {
-        this.name = ChatColor.translateAlternateColorCodes('&', name);
+        this.name = ColorTranslator.translate(name);
     }
 
     /**
@@ -271,7 +537,9 @@ public class SGMenu implements InventoryHolder {
     /**
      * Create new {@link SGButton} with {@link MenuAPI#getDefaultIcon default icon}.
      * <p>
-     * Automatically applies name and lore from {@code config}
+     * Automatically applies name and lore from {@code config}. The section is only read
+     * the first time, see {@link MenuAPI#getButtonDefinition(ConfigurationSection)}.
+     * Each button gets its own copy of the icon, so it may be modified freely.
      *
      * @param config config to get lore and name for {@link SGButton}
      * @return new button with default icon
@@ -279,22 +547,7 @@ public class SGMenu implements InventoryHolder {
      * @see MenuAPI#getDefaultIcon
      */
     public SGButton button(ConfigurationSection config) {
-        ItemStack icon;
-        String material = config.getString("material", "null");
-    
-        try {
-            icon = new ItemBuilder(Material.valueOf(material))
-                    .name(config.getString("name", "null"))
-                    .lore(config.getStringList("lore"))
-                    .build();
-        } catch (IllegalArgumentException e) {
-            icon = new ItemBuilder(menuAPI.getDefaultIcon().clone())
-                    .name(config.getString("name", "null"))
-                    .lore(config.getStringList("lore"))
-                    .build();
-        }
-
-        return new SGButton(icon);
+        return new SGButton(menuAPI.getButtonDefinition(config).createIcon(menuAPI.getDefaultIcon()));
     }
 
     /**
@@ -309,57 +562,51 @@ public class SGMenu implements InventoryHolder {
      * @see MenuAPI#getDefaultIcon
      */
     public SGButton button(ConfigurationSection config, Map<String, String> placeholders) {
-        ItemStack icon;
-        String name = Objects.requireNonNull(config.getString("name", "null"));
-        List<String> lore = config.getStringList("lore");
-        String material = config.getString("material", "null");
-
-        for (Map.Entry<String, String> placeholder : placeholders.entrySet()) {
-            name = name.replaceAll(placeholder.getKey(), placeholder.getValue());
-            lore = lore.stream().map(line -> line.replaceAll(placeholder.getKey(), placeholder.getValue())).collect(Collectors.toList());
-        }
-    
-        try {
-             icon = new ItemBuilder(Material.valueOf(material))
-                    .name(name)
-                    .lore(lore)
-                    .build();
-        } catch (IllegalArgumentException e) {
-            icon = new ItemBuilder(menuAPI.getDefaultIcon().clone())
-                    .name(name)
-                    .lore(lore)
-                    .build();
-        }
-
-        return new SGButton(icon);
+        return new SGButton(menuAPI.getButtonDefinition(config).createIcon(menuAPI.getDefaultIcon(), placeholders));
     }
 
     /**
-     * Adds the provided {@link SGButton}.
+     * Adds the provided {@link SGButton} to the first free slot.
+     * <br><br>
+     * Gaps between existing buttons are filled first, otherwise the button is placed after
+     * the highest filled slot - so once the first page is full, pagination is applied
+     * as with {@link #setButton(int, SGButton)}.
      *
      * @param button The button to add.
      */
     public synchronized void addButton(SGButton button) {
-        // If slot 0 is empty, but it's the 'highest filled slot', then set slot 0 to contain button.
-        // (This is an edge case for when the whole inventory is empty).
-        if (getHighestFilledSlot() == 0 && getButton(0) == null) {
-            setButton(0, button);
-            return;
-        }
+        if (button == null) return;
 
-        // Otherwise, add one to the highest filled slot, then use that slot for the new button.
-        int slot = getFirstAvailableSlot();
-        if (slot >= 0)
-            setButton(slot, button);
+        setButton(items.getFirstFreeSlot(), button);
     }
 
     /**
-     * Adds the specified {@link SGButton}s consecutively.
+     * Adds the specified {@link SGButton}s consecutively, as with {@link #addButton(SGButton)}.
      *
      * @param buttons The buttons to add.
      */
     public synchronized void addButtons(SGButton... buttons) {
-        for (SGButton button : buttons) addButton(button);
+        items.addAll(Arrays.asList(buttons).iterator(), buttons.length);
+    }
+
+    /**
+     * Adds the specified {@link SGButton}s consecutively, as with {@link #addButton(SGButton)}.
+     *
+     * @param buttons The buttons to add.
+     */
+    public synchronized void addButtons(Collection<? extends SGButton> buttons) {
+        items.addAll(buttons.iterator(), buttons.size());
+    }
+
+    /**
+     * Adds the specified {@link SGButton}s consecutively, as with {@link #addButton(SGButton)}.
+     * <br><br>
+     * The stream is consumed by this call.
+     *
+     * @param buttons The buttons to add.
+     */
+    public synchronized void addButtons(Stream<? extends SGButton> buttons) {
+        items.addAll(buttons.iterator(), 0);
     }
 
     /**
@@ -436,10 +683,25 @@ public class SGMenu implements InventoryHolder {
      * @return The {@link SGButton} that was in that slot or null if the slot was invalid or if there was no button that slot.
      */
     public SGButton getButton(int slot) {
-        if (slot < 0 || slot > getHighestFilledSlot())
+        if (slot < 0)
+            return null;
+
+        SGButton button = items.get(slot);
+        if (button != null || buttonProvider == null)
+            return button;
+
+        // Otherwise, materialize the entry of the virtual menu displayed in that slot.
+        int index = getProviderIndex(slot);
+        if (index < 0 || index >= buttonProvider.size())
             return null;
 
-        return items.get(slot);
+        button = providedButtons.get(index);
+        if (button == null) {
+            button = buttonProvider.getButton(index);
+            if (button != null) providedButtons.put(index, button);
+        }
+
+        return button;
     }
 
     /**
@@ -457,28 +719,198 @@ public class SGMenu implements InventoryHolder {
         return getButton((page * getPageSize()) + slot);
     }
 
+    /// VIRTUAL MENU ///
+
+    /**
+     * Backs the menu with a {@link SGButtonProvider}, turning it into a 'virtual' menu.
+     * <br><br>
+     * Rather than adding every entry as a button up front, the provider is only asked
+     * for the entries of the page being rendered or clicked. Entries fill the content
+     * slots of each page in order - that is every slot that isn't stickied, and isn't on
+     * the pagination row when automatic pagination is enabled. Buttons set directly
+     * with {@link #setButton(int, SGButton)} take precedence over provided entries.
+     * <br><br>
+     * Materialized entries are kept in a small bounded cache (see {@link #setButtonProviderCacheSize(int)}).
+     * Call {@link #invalidateButtonProvider()} when the provider's data changes.
+     *
+     * @param buttonProvider The provider supplying the menu's entries, or null to remove it.
+     */
+    public void setButtonProvider(SGButtonProvider buttonProvider) {
+        this.buttonProvider = buttonProvider;
+        this.providedButtons.clear();
+    }
+
+    /**
+     * @see #setButtonProvider(SGButtonProvider)
+     * @return The provider supplying the menu's entries, or null if the menu isn't virtual.
+     */
+    public SGButtonProvider getButtonProvider() {
+        return buttonProvider;
+    }
+
+    /**
+     * Sets the number of materialized entries of a virtual menu that are kept in memory.
+     * The least recently used entries are discarded first.
+     * <br><br>
+     * This defaults to three pages of the largest size, enough to keep the current page and
+     * its neighbours cached.
+     *
+     * @param buttonProviderCacheSize The maximum number of cached entries.
+     */
+    public void setButtonProviderCacheSize(int buttonProviderCacheSize) {
+        this.buttonProviderCacheSize = buttonProviderCacheSize;
+    }
+
+    /**
+     * @see #setButtonProviderCacheSize(int)
+     * @return The maximum number of cached entries of a virtual menu.
+     */
+    public int getButtonProviderCacheSize() {
+        return buttonProviderCacheSize;
+    }
+
+    /**
+     * Discards every materialized entry of the virtual menu, so they are requested
+     * from the {@link SGButtonProvider} again the next time they are displayed.
+     */
+    public void invalidateButtonProvider() {
+        this.providedButtons.clear();
+    }
+
     /// PAGINATION ///
 
+    /**
+     * Returns the pagination button of the specified type for the current page.
+     * <br><br>
+     * Pagination buttons are cached per pagination button builder, button type, current
+     * page and max page, so the builder is only called again when one of those changes.
+     * If your builder depends on anything else, call {@link #invalidatePaginationButtons()}
+     * when that changes.
+     *
+     * @param type The type of pagination button.
+     * @return The pagination button, or null if the builder doesn't display one.
+     */
+    public SGButton getPaginationButton(SGPaginationButtonType type) {
+        SGPaginationButtonBuilder paginationButtonBuilder = menuAPI.getDefaultPaginationButtonBuilder();
+        if (getPaginationButtonBuilder() != null)
+            paginationButtonBuilder = getPaginationButtonBuilder();
+
+        return paginationButtons.get(paginationButtonBuilder, type, this, getCurrentPage(), getMaxPage());
+    }
+
+    /**
+     * Returns the pagination button displayed in the specified slot of the current page.
+     *
+     * @param slot The slot of the page.
+     * @return The pagination button in that slot, or null if pagination isn't rendered or there is no pagination button there.
+     */
+    public SGButton getPaginationButtonAt(int slot) {
+        int pageSize = getPageSize();
+        if (slot < pageSize - 9 || slot >= pageSize || !needsPagination())
+            return null;
+
+        SGPaginationButtonType type = SGPaginationButtonType.forSlot(slot - (pageSize - 9));
+        if (type == SGPaginationButtonType.UNASSIGNED)
+            return null;
+
+        return getPaginationButton(type);
+    }
+
+    /**
+     * Discards the cached pagination buttons, so they are rebuilt the next time the
+     * inventory is rendered.
+     *
+     * @see #getPaginationButton(SGPaginationButtonType)
+     */
+    public void invalidatePaginationButtons() {
+        paginationButtons.invalidate();
+    }
+
     /**
      * Returns the current page of the inventory.
      * This is the page that will be displayed when the inventory is opened and
-     * displayed to a player (i.e. rendered).
+     * displayed to a player (i.e. rendered) without specifying the viewer.
+     * <br><br>
+     * While a page is being rendered for a viewer (for example in a pagination button
+     * builder) or in a page change listener, this returns the page of that viewer instead.
      *
+     * @see #getCurrentPage(HumanEntity)
      * @return The current page of the inventory.
      */
     public int getCurrentPage() {
-        return currentPage;
+        return contextPage != null ? contextPage : currentPage;
+    }
+
+    /**
+     * Returns the page the specified viewer is on.
+     * <br><br>
+     * Each viewer pages through the menu independently, so a single SGMenu can be shown to
+     * many players. Viewers who haven't changed page are on the default page ({@link #getCurrentPage()}).
+     *
+     * @param viewer The viewer to get the page of.
+     * @return The viewer's current page.
+     */
+    public int getCurrentPage(HumanEntity viewer) {
+        return viewerPages.getOrDefault(viewer.getUniqueId(), currentPage);
     }
 
     /**
      * Sets the page of the inventory that will be displayed when the inventory is
      * opened and displayed to a player (i.e. rendered).
+     * <br><br>
+     * This sets the default page and moves every viewer back to it.
      *
      * @param page The new current page of the inventory.
      */
     public void setCurrentPage (int page) {
         this.currentPage = page;
-        if (this.onPageChange != null) this.onPageChange.accept(this);
+        this.viewerPages.clear();
+        firePageChange(page);
+    }
+
+    /**
+     * Sets the page that will be displayed to the specified viewer.
+     * <br><br>
+     * This doesn't refresh the viewer's inventory; use {@link #refreshInventory(HumanEntity)} for that.
+     *
+     * @param viewer The viewer whose page should be changed.
+     * @param page The new current page of the viewer.
+     */
+    public void setCurrentPage(HumanEntity viewer, int page) {
+        this.viewerPages.put(viewer.getUniqueId(), page);
+        firePageChange(page);
+    }
+
+    /**
+     * Runs the specified action with the specified page as the context page, so that
+     * {@link #getCurrentPage()} (and {@link #getInventory()}) use that page while it runs.
+     * <br><br>
+     * This is used by the library while dispatching clicks, drags and closes, so listeners
+     * see the page of the viewer in question.
+     *
+     * @param page The page to use as the context page.
+     * @param action The action to run.
+     */
+    public void runWithContextPage(int page, Runnable action) {
+        Integer previousContext = contextPage;
+        contextPage = page;
+        try {
+            action.run();
+        } finally {
+            contextPage = previousContext;
+        }
+    }
+
+    /**
+     * Forgets the page the specified viewer is on (and any refresh requested for them).
+     * <br><br>
+     * This is called by the library once the viewer closes the menu or quits.
+     *
+     * @param viewer The viewer who is no longer viewing the menu.
+     */
+    public void forgetViewer(HumanEntity viewer) {
+        viewerPages.remove(viewer.getUniqueId());
+        refreshRequests.remove(viewer.getUniqueId());
     }
 
     /**
@@ -487,7 +919,16 @@ public class SGMenu implements InventoryHolder {
      * @return The highest page number that can be viewed.
      */
     public int getMaxPage() {
-        return (int) Math.ceil(((double) getHighestFilledSlot() + 1) / ((double) getPageSize()));
+        int maxPage = items.getPageCount(getPageSize());
+        if (buttonProvider == null)
+            return maxPage;
+
+        getContentSlots();
+        if (contentSlotsPerPage == 0)
+            return maxPage;
+
+        int providerPages = (buttonProvider.size() + contentSlotsPerPage - 1) / contentSlotsPerPage;
+        return Math.max(maxPage, providerPages);
     }
 
     /**
@@ -498,22 +939,17 @@ public class SGMenu implements InventoryHolder {
      * @return The highest filled slot's number.
      */
     public int getHighestFilledSlot() {
-        int slot = 0;
-
-        for (int nextSlot : items.keySet()) {
-            if (items.get(nextSlot) != null && nextSlot > slot)
-                slot = nextSlot;
-        }
-
-        return slot;
+        return Math.max(0, items.getHighestFilledSlot());
     }
 
+    /**
+     * Returns the first slot of the first page that doesn't contain a button.
+     *
+     * @return The first free slot on the first page, or -1 if the first page is full.
+     */
     public int getFirstAvailableSlot() {
-        for (int slot = 0; slot < getPageSize(); slot++)
-            if (!items.containsKey(slot))
-                return slot;
-
-        return -1;
+        int slot = items.getFirstFreeSlot();
+        return slot < getPageSize() ? slot : -1;
     }
 
     /**
@@ -525,10 +961,11 @@ public class SGMenu implements InventoryHolder {
      * @return Whether or not the page could be changed (false means the max page is currently open).
      */
     public boolean nextPage(HumanEntity viewer) {
-        if (currentPage < getMaxPage() - 1) {
-            currentPage++;
+        int page = getCurrentPage(viewer);
+        if (page < getMaxPage() - 1) {
+            viewerPages.put(viewer.getUniqueId(), page + 1);
             refreshInventory(viewer);
-            if (this.onPageChange != null) this.onPageChange.accept(this);
+            firePageChange(page + 1);
             return true;
         } else {
             return false;
@@ -544,10 +981,11 @@ public class SGMenu implements InventoryHolder {
      * @return Whether or not the page could be changed (false means the first page is currently open).
      */
     public boolean previousPage(HumanEntity viewer) {
-        if (currentPage > 0) {
-            currentPage--;
+        int page = getCurrentPage(viewer);
+        if (page > 0) {
+            viewerPages.put(viewer.getUniqueId(), page - 1);
             refreshInventory(viewer);
-            if (this.onPageChange != null) this.onPageChange.accept(this);
+            firePageChange(page - 1);
             return true;
         } else {
             return false;
@@ -574,7 +1012,8 @@ public class SGMenu implements InventoryHolder {
         if (slot < 0 || slot >= getPageSize())
             return;
 
-        this.stickiedSlots.add(slot);
+        this.stickiedSlots |= 1L << slot;
+        this.contentSlots = null;
     }
 
     /**
@@ -585,7 +1024,11 @@ public class SGMenu implements InventoryHolder {
      * @param slot The slot to un-mark as 'sticky'.
      */
     public void unstickSlot(int slot) {
-        this.stickiedSlots.remove(slot);
+        if (slot < 0 || slot >= Long.SIZE)
+            return;
+
+        this.stickiedSlots &= ~(1L << slot);
+        this.contentSlots = null;
     }
 
     /**
@@ -595,7 +1038,8 @@ public class SGMenu implements InventoryHolder {
      * @see #stickSlot(int)
      */
     public void clearStickiedSlots() {
-        this.stickiedSlots.clear();
+        this.stickiedSlots = 0L;
+        this.contentSlots = null;
     }
 
     /**
@@ -612,7 +1056,7 @@ public class SGMenu implements InventoryHolder {
         if (slot < 0 || slot >= getPageSize())
             return false;
 
-        return this.stickiedSlots.contains(slot);
+        return (this.stickiedSlots & (1L << slot)) != 0;
     }
 
     /**
@@ -623,7 +1067,8 @@ public class SGMenu implements InventoryHolder {
      */
     public void clearAllButStickiedSlots() {
         this.currentPage = 0;
-        items.entrySet().removeIf(item -> !isStickiedSlot(item.getKey()));
+        this.viewerPages.clear();
+        items.removeIf(slot -> !isStickiedSlot(slot));
     }
 
     /// EDITABLE SLOTS ///
@@ -640,7 +1085,7 @@ public class SGMenu implements InventoryHolder {
     public void editableSlot(int slot) {
         if (slot < 0 || slot >= getPageSize()) return;
 
-        this.editableSlots.add(slot);
+        this.editableSlots |= 1L << slot;
     }
 
     /**
@@ -650,7 +1095,9 @@ public class SGMenu implements InventoryHolder {
      * @param slot The slot to un-mark as 'editable'.
      */
     public void uneditableSlot(int slot) {
-        this.editableSlots.remove(slot);
+        if (slot < 0 || slot >= Long.SIZE) return;
+
+        this.editableSlots &= ~(1L << slot);
     }
 
     /**
@@ -667,7 +1114,75 @@ public class SGMenu implements InventoryHolder {
     public boolean isEditableSlot(int slot) {
         if (slot < 0 || slot >= getPageSize()) return false;
 
-        return this.editableSlots.contains(slot);
+        return (this.editableSlots & (1L << slot)) != 0;
+    }
+
+    /**
+     * This checks whether every one of the given slots is editable
+     * (as defined by {@link #isEditableSlot(int)}).
+     *
+     * @see #editableSlot(int)
+     * @param slots The slots to check.
+     * @return True if all the slots are editable (or there are none), false otherwise.
+     */
+    public boolean areEditableSlots(Collection<Integer> slots) {
+        int pageSize = getPageSize();
+
+        long mask = 0L;
+        for (int slot : slots) {
+            if (slot < 0 || slot >= pageSize) return false;
+            mask |= 1L << slot;
+        }
+
+        return (mask & ~this.editableSlots) == 0;
+    }
+
+    /**
+     * Decides whether an item shift-clicked from a viewer's own inventory may be moved
+     * into the specified inventory of this menu.
+     * <p>
+     * The move is simulated like vanilla performs it, going through the slots of the inventory
+     * in order: first the item is merged into every similar stack that isn't full (whether it
+     * sits in an editable slot or is the icon of a button), then whatever is left is placed into
+     * the first empty slot (which includes slots of buttons whose icon hasn't been written yet).
+     * The move is allowed if every slot it would touch is editable.
+     *
+     * @param inventory The inventory of this menu the item would be moved into.
+     * @param item The shift-clicked item.
+     * @return True if the item would be moved, and only into editable slots.
+     */
+    public boolean acceptsShiftClick(Inventory inventory, ItemStack item) {
+        if (item == null || item.getType().isAir()) return false;
+
+        int remaining = item.getAmount();
+        boolean moved = false;
+        int firstEmpty = -1;
+
+        // First pass: merge into similar stacks that aren't full.
+        for (int slot = 0; slot < inventory.getSize() && remaining > 0; slot++) {
+            ItemStack current = inventory.getItem(slot);
+            if (current == null || current.getType().isAir()) {
+                if (firstEmpty < 0) firstEmpty = slot;
+                continue;
+            }
+
+            int space = Math.min(current.getMaxStackSize(), inventory.getMaxStackSize()) - current.getAmount();
+            if (space <= 0 || !current.isSimilar(item)) continue;
+
+            if (!isEditableSlot(slot)) return false;
+
+            remaining -= space;
+            moved = true;
+        }
+
+        // Second pass: place the rest into the first empty slot.
+        if (remaining > 0 && firstEmpty >= 0) {
+            if (!isEditableSlot(firstEmpty)) return false;
+
+            moved = true;
+        }
+
+        return moved;
     }
 
     /// EVENTS ///
@@ -785,82 +1300,651 @@ public class SGMenu implements InventoryHolder {
 
     /// INVENTORY API ///
 
+    /**
+     * Refreshes the contents of the inventory for the specified viewer, if the viewer
+     * currently has this inventory open.
+     * <br><br>
+     * If the size or the title of the inventory have changed, the inventory is re-opened.
+     * Otherwise, the contents are written directly into the viewer's open inventory. When
+     * incremental refresh is enabled (see {@link #setIncrementalRefreshEnabled(boolean)}),
+     * only the slots whose icon differs from what was last written are updated.
+     * <br><br>
+     * If the menu uses shared inventories (see {@link #setPerPlayerContent(boolean)}), this
+     * updates the inventory seen by every viewer of the page.
+     *
+     * @see #requestRefresh(HumanEntity)
+     * @param viewer The {@link HumanEntity} viewing the inventory.
+     */
     public void refreshInventory(HumanEntity viewer) {
+        // This refresh includes whatever a pending request would have.
+        refreshRequests.remove(viewer.getUniqueId());
+
+        Inventory topInventory = viewer.getOpenInventory().getTopInventory();
+
         // If the open inventory isn't an SGMenu - or if it isn't this inventory, do nothing.
-        if (!(viewer.getOpenInventory().getTopInventory().getHolder() instanceof SGMenu) || viewer.getOpenInventory().getTopInventory().getHolder() != this)
+        if (!(topInventory.getHolder() instanceof SGMenu) || topInventory.getHolder() != this)
             return;
 
         // If the new size is different, we'll need to open a new inventory.
-        if (viewer.getOpenInventory().getTopInventory().getSize() != getPageSize() + (getMaxPage() > 0 ? 9 : 0)) {
-            viewer.openInventory(getInventory());
+        if (topInventory.getSize() != getPageSize()) {
+            viewer.openInventory(getInventory(viewer));
             return;
         }
 
+        int page = getCurrentPage(viewer);
+
         // If the name has changed, we'll need to open a new inventory.
-        String newName = name.replace("{currentPage}", String.valueOf(currentPage + 1))
-                             .replace("{maxPage}", String.valueOf(getMaxPage()));
-        if (!viewer.getOpenInventory().getTitle().equals(newName)) {
-            viewer.openInventory(getInventory());
+        if (!viewer.getOpenInventory().getTitle().equals(getTitle(page))) {
+            viewer.openInventory(getInventory(viewer));
+            return;
+        }
+
+        // Shared inventories display a single page, so a viewer on another page needs that page's inventory.
+        if (usesSharedInventories() && getRenderedPage(topInventory).getPage() != page) {
+            viewer.openInventory(getInventory(viewer));
             return;
         }
 
         // Otherwise, we can refresh the contents without re-opening the inventory.
-        viewer.getOpenInventory().getTopInventory().setContents(getInventory().getContents());
+        render(topInventory, page, false);
+    }
+
+    /**
+     * Refreshes the inventory of every player currently viewing this menu.
+     * <br><br>
+     * Each shared inventory is only rendered once, no matter how many players view it.
+     *
+     * @see #refreshInventory(HumanEntity)
+     */
+    public void refreshViewers() {
+        Set<Inventory> refreshed = new HashSet<>();
+
+        for (SGOpenMenu openMenu : menuAPI.findOpen(this)) {
+            HumanEntity viewer = openMenu.getPlayer();
+            if (refreshed.contains(viewer.getOpenInventory().getTopInventory())) continue;
+
+            refreshInventory(viewer);
+            refreshed.add(viewer.getOpenInventory().getTopInventory());
+        }
+    }
+
+    /**
+     * Requests that the inventory of the specified viewer be refreshed at the next tick.
+     * <br><br>
+     * Every request made for the viewer until then is merged into a single
+     * {@link #refreshInventory(HumanEntity) refresh}, so this can be called after every change
+     * to the menu without rendering it more than once per tick. Use
+     * {@link #refreshInventory(HumanEntity)} when the viewer must see the change immediately.
+     * <br><br>
+     * This can be called from any thread.
+     *
+     * @param viewer The {@link HumanEntity} viewing the inventory.
+     */
+    public void requestRefresh(HumanEntity viewer) {
+        refreshRequests.put(viewer.getUniqueId(), viewer);
+
+        if (refreshScheduled.compareAndSet(false, true))
+            Bukkit.getScheduler().runTask(owner, this::flushRefreshRequests);
+    }
+
+    /**
+     * Requests that the inventory of every player currently viewing this menu be refreshed
+     * at the next tick.
+     *
+     * @see #requestRefresh(HumanEntity)
+     */
+    public void requestRefreshViewers() {
+        for (SGOpenMenu openMenu : menuAPI.findOpen(this))
+            requestRefresh(openMenu.getPlayer());
+    }
+
+    /**
+     * Returns the page last rendered into the specified inventory of this menu.
+     * <br><br>
+     * This is the routing table used by the library to dispatch clicks - each slot maps
+     * directly to the button displayed in it. If nothing was rendered into the inventory
+     * by this menu, the current page is rendered (without writing any icons).
+     *
+     * @param inventory The inventory to get the rendered page of.
+     * @return The page displayed in that inventory.
+     */
+    public RenderedPage getRenderedPage(Inventory inventory) {
+        RenderedPage page = renderedPages.get(inventory);
+        if (page == null) {
+            page = renderPage(currentPage);
+            renderedPages.put(inventory, page);
+        }
+
+        return page;
+    }
+
+    /**
+     * Returns the page last rendered into the specified inventory of this menu, without
+     * rendering one if there is none (unlike {@link #getRenderedPage(Inventory)}).
+     *
+     * @param inventory The inventory to get the rendered page of.
+     * @return The page displayed in that inventory, or null if nothing was rendered into it.
+     */
+    public RenderedPage findRenderedPage(Inventory inventory) {
+        return renderedPages.get(inventory);
+    }
+
+    /**
+     * Discards everything remembered about the specified inventory - the page rendered
+     * into it, the icons last written into it and, for shared inventories, the inventory
+     * itself - so the next time it's needed it's rendered from scratch.
+     * <br><br>
+     * This is called by the library once the inventory has been closed by all its viewers.
+     *
+     * @param inventory The inventory that is no longer displayed.
+     */
+    public void discardRenderedPage(Inventory inventory) {
+        renderedPages.remove(inventory);
+        refreshSnapshots.remove(inventory);
+        discardPendingWrites(inventory);
+        timeoutChecks.remove(inventory);
+        MenuAPI.getRenderBatch().forget(inventory);
+        sharedInventories.values().removeIf(shared -> shared.inventory.equals(inventory));
+
+        boolean cancelStaleIcons = menuAPI.areStaleIconsCancelled();
+        if (areStaleIconsCancelled() != null)
+            cancelStaleIcons = areStaleIconsCancelled();
+
+        // Once none of the menu's inventories is displayed, its queued icon jobs are no longer needed.
+        if (cancelStaleIcons && renderedPages.isEmpty())
+            MenuAPI.getIconScheduler().cancel(this);
+    }
+
+    /**
+     * Records that the viewer opened the specified inventory of this menu, so that the
+     * viewer's current page matches the page that was rendered into it.
+     * <br><br>
+     * This is called by the library when the inventory is opened.
+     *
+     * @param viewer The viewer who opened the inventory.
+     * @param inventory The opened inventory.
+     */
+    public void trackOpenedPage(HumanEntity viewer, Inventory inventory) {
+        RenderedPage page = renderedPages.get(inventory);
+        if (page != null) viewerPages.put(viewer.getUniqueId(), page.getPage());
     }
 
     /**
      * Returns the Bukkit/Spigot {@link Inventory} that represents the GUI.
      * This is shown to a player using {@link HumanEntity#openInventory(Inventory)}.
+     * <br><br>
+     * This renders the page returned by {@link #getCurrentPage()} - the default page, or within a
+     * listener, the page of the viewer in question; use {@link #getInventory(HumanEntity)} to render
+     * the page a specific viewer is on.
      *
-     * @return The created inventory used to display the GUI.
+     * @return The inventory used to display the GUI.
      */
     @Override
     public Inventory getInventory() {
+        return getInventory(getCurrentPage());
+    }
+
+    /**
+     * Returns the Bukkit/Spigot {@link Inventory} that represents the GUI, displaying
+     * the page the specified viewer is on.
+     *
+     * @param viewer The viewer the inventory is for.
+     * @return The inventory used to display the GUI.
+     */
+    public Inventory getInventory(HumanEntity viewer) {
+        return getInventory(getCurrentPage(viewer));
+    }
+
+    /**
+     * Returns an inventory displaying the specified page.
+     * <br><br>
+     * If the menu uses shared inventories (see {@link #setPerPlayerContent(boolean)}),
+     * every call for the same page returns the same, up-to-date, inventory.
+     */
+    private Inventory getInventory(int page) {
+        String title = getTitle(page);
+        boolean shared = usesSharedInventories();
+
+        // Reuse the page's shared inventory, as long as it still has the right size and title.
+        if (shared) {
+            SharedInventory sharedInventory = sharedInventories.get(page);
+            if (sharedInventory != null && sharedInventory.title.equals(title) && sharedInventory.inventory.getSize() == getPageSize()) {
+                render(sharedInventory.inventory, page, false);
+                return sharedInventory.inventory;
+            }
+        }
+
+        // Forget inventories that were rendered but are no longer (or never were) viewed.
+        renderedPages.keySet().removeIf(rendered -> rendered.getViewers().isEmpty());
+        refreshSnapshots.keySet().removeIf(rendered -> rendered.getViewers().isEmpty());
+        // (Pending icons are kept until they complete, as the inventory may be about to be opened.)
+        pendingWrites.values().removeIf(PendingRender::isDone);
+        sharedInventories.values().removeIf(rendered -> rendered.inventory.getViewers().isEmpty());
+
+        Inventory inventory = Bukkit.createInventory(this, (getPageSize()), title);
+        if (shared) sharedInventories.put(page, new SharedInventory(inventory, title));
+
+        render(inventory, page, true);
+        return inventory;
+    }
+
+    /**
+     * Renders a page into the specified inventory, remembering the rendered
+     * page for click routing.
+     *
+     * @param inventory The inventory to render into.
+     * @param pageNumber The page to render.
+     * @param fresh Whether the inventory was just created (and is therefore empty).
+     */
+    private void render(Inventory inventory, int pageNumber, boolean fresh) {
+        RenderedPage page = renderPage(pageNumber);
+        renderedPages.put(inventory, page);
+
+        // Icons still pending from the previous render of this inventory are now stale.
+        int generation = MenuAPI.getRenderBatch().nextGeneration(inventory);
+        PendingRender previous = pendingWrites.remove(inventory);
+        PendingRender pending = new PendingRender(generation, previous, getEffectiveIconTimeout());
+
+        boolean isIncrementalRefreshEnabled = menuAPI.isIncrementalRefreshEnabled();
+        if (isIncrementalRefreshEnabled() != null)
+            isIncrementalRefreshEnabled = isIncrementalRefreshEnabled();
+
+        if (!isIncrementalRefreshEnabled) {
+            refreshSnapshots.remove(inventory);
+
+            for (int slot = 0; slot < page.size(); slot++) {
+                SGButton button = page.getButton(slot);
+
+                // Until the new button's icon is written, the slot mustn't keep showing the previous icon.
+                if (!fresh && (button == null || !button.isIconReady())) inventory.setItem(slot, null);
+                if (button != null) pending.track(slot, button.put(inventory, slot, generation));
+            }
+        } else {
+            // If nothing has been written into this inventory yet, every slot has to be written once.
+            Object[] snapshot = refreshSnapshots.get(inventory);
+            boolean writeAll = snapshot == null || snapshot.length != page.size();
+            if (writeAll) {
+                snapshot = new Object[page.size()];
+                refreshSnapshots.put(inventory, snapshot);
+            }
+
+            for (int slot = 0; slot < page.size(); slot++) {
+                SGButton button = page.getButton(slot);
+
+                // The icon isn't resolved yet (or failed), so let the button write it once it is,
+                // clearing whatever the slot was showing in the meantime.
+                if (button != null && !button.isIconReady()) {
+                    if (!fresh && (writeAll || snapshot[slot] != PENDING_ICON))
+                        inventory.setItem(slot, null);
+
+                    pending.track(slot, button.put(inventory, slot, generation));
+                    snapshot[slot] = PENDING_ICON;
+                    continue;
+                }
+
+                ItemStack icon = button != null ? button.getIcon() : null;
+                if (!writeAll && snapshot[slot] != PENDING_ICON && Objects.equals(snapshot[slot], icon))
+                    continue;
+
+                if (!fresh || icon != null)
+                    inventory.setItem(slot, icon);
+
+                // Keep a copy, so icons modified in place afterwards still compare as changed.
+                snapshot[slot] = icon != null ? icon.clone() : null;
+            }
+        }
+
+        // Only now, so buttons that are still displayed keep waiting for their icon rather than
+        // having it cancelled (and queued again) by the release of the previous render's writes.
+        cancelStaleWrites(previous);
+
+        if (!pending.isDone()) {
+            pendingWrites.put(inventory, pending);
+            applyTimeoutIcons(inventory);
+        }
+
+        prefetchAdjacentPages(pageNumber);
+    }
+
+    /**
+     * Refreshes every viewer whose refresh was requested since the last flush.
+     * Each shared inventory is only rendered once, no matter how many of its viewers requested it.
+     */
+    private void flushRefreshRequests() {
+        // Allow requests made while flushing to schedule the next flush.
+        refreshScheduled.set(false);
+
+        Set<Inventory> refreshed = new HashSet<>();
+        for (HumanEntity viewer : new ArrayList<>(refreshRequests.values())) {
+            // Already refreshed directly since it was requested.
+            if (refreshRequests.remove(viewer.getUniqueId()) == null) continue;
+
+            if (refreshed.contains(viewer.getOpenInventory().getTopInventory())) continue;
+
+            refreshInventory(viewer);
+            refreshed.add(viewer.getOpenInventory().getTopInventory());
+        }
+    }
+
+    /**
+     * Returns the icon timeout of this menu, in milliseconds (0 meaning indefinitely).
+     */
+    private long getEffectiveIconTimeout() {
+        long iconTimeout = MenuAPI.getIconTimeout();
+        if (getIconTimeout() != null)
+            iconTimeout = getIconTimeout();
+
+        return iconTimeout;
+    }
+
+    /**
+     * Displays the timeout icon in every slot of the inventory's last render whose icon is
+     * still pending past its deadline, and schedules a check for the next deadline.
+     * The writes themselves are left pending, so the real icon replaces the timeout icon if
+     * it resolves later on.
+     */
+    private void applyTimeoutIcons(Inventory inventory) {
+        // The inventory has been closed in the meantime.
+        PendingRender pending = pendingWrites.get(inventory);
+        if (pending == null || !MenuAPI.getRenderBatch().isCurrent(inventory, pending.generation))
+            return;
+
+        ItemStack fallback = getTimeoutIcon() != null ? getTimeoutIcon() : menuAPI.getTimeoutIcon();
+        long now = System.nanoTime();
+        Long nextDeadline = null;
+
+        for (Map.Entry<Integer, Long> deadline : pending.deadlines.entrySet()) {
+            int slot = deadline.getKey();
+            if (pending.writes.get(slot).isDone() || pending.shown.contains(slot)) continue;
+
+            if (deadline.getValue() - now > 0) {
+                if (nextDeadline == null || deadline.getValue() - nextDeadline < 0) nextDeadline = deadline.getValue();
+                continue;
+            }
+
+            inventory.setItem(slot, fallback);
+            pending.shown.add(slot);
+
+            // Slots that already timed out before the inventory was rendered again are only counted once.
+            if (pending.counted.add(slot)) {
+                iconTimeouts++;
+                menuAPI.recordIconTimeout();
+            }
+        }
+
+        if (nextDeadline != null) scheduleTimeoutCheck(inventory, nextDeadline);
+    }
+
+    /**
+     * Schedules a timeout check of the inventory at the specified deadline, unless one is
+     * already scheduled by then. Renders keep their slots' deadlines, so a menu refreshed more
+     * often than its timeout still gets its timeout icons.
+     */
+    private void scheduleTimeoutCheck(Inventory inventory, long deadline) {
+        Long scheduled = timeoutChecks.get(inventory);
+        if (scheduled != null && scheduled - deadline <= 0) return;
+
+        timeoutChecks.put(inventory, deadline);
+
+        // A tick is 50 milliseconds, so round up to the tick the deadline falls in.
+        long ticks = Math.max(1, (TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()) + 49) / 50);
+        Bukkit.getScheduler().runTaskLater(owner, () -> {
+            // A check for an earlier deadline took over from this one.
+            if (timeoutChecks.remove(inventory, deadline)) applyTimeoutIcons(inventory);
+        }, ticks);
+    }
+
+    /**
+     * Starts resolving the icons of the pages before and after the specified page, if
+     * prefetching is enabled, until the menu's prefetch budget is used up. The page
+     * after is prefetched first, as that's the way players usually browse.
+     */
+    private void prefetchAdjacentPages(int page) {
+        boolean prefetchAdjacentPages = menuAPI.isAdjacentPagePrefetchEnabled();
+        if (isAdjacentPagePrefetchEnabled() != null)
+            prefetchAdjacentPages = isAdjacentPagePrefetchEnabled();
+
+        if (!prefetchAdjacentPages) return;
+
+        int maxPage = getMaxPage();
+        int pageSize = getPageSize();
+
+        for (int adjacent : new int[] { page + 1, page - 1 }) {
+            if (adjacent < 0 || adjacent >= maxPage) continue;
+
+            for (int slot = adjacent * pageSize; slot < (adjacent + 1) * pageSize; slot++) {
+                if (prefetching.size() >= prefetchBudget) return;
+
+                SGButton button = getButton(slot);
+                if (button == null || prefetching.contains(button)) continue;
+
+                CompletableFuture<ItemStack> icon = button.prefetchIcon(this);
+                if (icon != null && prefetching.add(button))
+                    icon.whenComplete((resolved, error) -> prefetching.remove(button));
+            }
+        }
+    }
+
+    /**
+     * Forgets the pending icon writes of the last render of an inventory, cancelling them
+     * if stale icons should be cancelled. Either way, their icons are dropped by the
+     * {@link xyz.nifti.gui.render.RenderBatch} should they complete.
+     */
+    private void discardPendingWrites(Inventory inventory) {
+        cancelStaleWrites(pendingWrites.remove(inventory));
+    }
+
+    /**
+     * Cancels the pending icon writes of a render that is no longer displayed, if stale icons
+     * should be cancelled. A button's icon job is only cancelled once no render waits for it.
+     */
+    private void cancelStaleWrites(PendingRender pending) {
+        if (pending == null) return;
+
+        boolean cancelStaleIcons = menuAPI.areStaleIconsCancelled();
+        if (areStaleIconsCancelled() != null)
+            cancelStaleIcons = areStaleIconsCancelled();
+
+        if (cancelStaleIcons)
+            pending.writes.values().forEach(write -> write.cancel(false));
+    }
+
+    /**
+     * Returns the title of the specified page, with the page placeholders substituted.
+     */
+    private String getTitle(int page) {
+        return name.replace("{currentPage}", String.valueOf(page + 1))
+                   .replace("{maxPage}", String.valueOf(getMaxPage()));
+    }
+
+    /**
+     * Calls the page change listener, with the new page as the context page.
+     */
+    private void firePageChange(int page) {
+        if (this.onPageChange == null) return;
+
+        runWithContextPage(page, () -> this.onPageChange.accept(this));
+    }
+
+    /**
+     * Returns whether all viewers of a page share one inventory. This isn't the case
+     * for menus with per-player content, with editable slots, or whose default interactions
+     * aren't blocked (as the items players move in and out of the inventory are their own).
+     */
+    private boolean usesSharedInventories() {
+        boolean blockDefaultInteractions = menuAPI.areDefaultInteractionsBlocked();
+        if (areDefaultInteractionsBlocked() != null)
+            blockDefaultInteractions = areDefaultInteractionsBlocked();
+
+        return !perPlayerContent && editableSlots == 0L && blockDefaultInteractions;
+    }
+
+    /**
+     * Resolves the button that should be displayed in each slot of a page,
+     * taking stickied slots and pagination buttons into account.
+     *
+     * @param page The page to render.
+     * @return The rendered page, holding the button for each slot (or null).
+     */
+    private RenderedPage renderPage(int page) {
+        // Pagination button builders read the page through getCurrentPage().
+        Integer previousContext = contextPage;
+        contextPage = page;
+
+        try {
+            boolean needsPagination = needsPagination();
+
+            int pageSize = getPageSize();
+            SGButton[] layout = new SGButton[pageSize];
+            long paginationSlots = 0L;
+
+            // Add the main inventory items (and the entries of a virtual menu).
+            for (int slot = page * pageSize; slot < (page + 1) * pageSize; slot++)
+                layout[slot - (page * pageSize)] = getButton(slot);
+
+            // Update the stickied slots, ignoring any beyond the page if its size was reduced.
+            long stickied = stickiedSlots & (pageSize >= Long.SIZE ? -1L : (1L << pageSize) - 1);
+            for (; stickied != 0; stickied &= stickied - 1) {
+                int stickiedSlot = Long.numberOfTrailingZeros(stickied);
+                SGButton button = getButton(stickiedSlot);
+                if (button != null) layout[stickiedSlot] = button;
+            }
+
+            // Render the pagination items, on the last row of the page.
+            if (needsPagination) {
+                for (int slot = pageSize - 9; slot < pageSize; slot++) {
+                    SGButton paginationButton = getPaginationButtonAt(slot);
+
+                    if (paginationButton != null) {
+                        layout[slot] = paginationButton;
+                        paginationSlots |= 1L << slot;
+                    }
+                }
+            }
+
+            return new RenderedPage(page, layout, paginationSlots);
+        } finally {
+            contextPage = previousContext;
+        }
+    }
+
+    /**
+     * Returns whether pagination buttons are rendered, which is the case when
+     * automatic pagination is enabled for this menu (or plugin-wide).
+     */
+    private boolean needsPagination() {
         boolean isAutomaticPaginationEnabled = menuAPI.isAutomaticPaginationEnabled();
         if (isAutomaticPaginationEnabled() != null)
             isAutomaticPaginationEnabled = isAutomaticPaginationEnabled();
-        
-        boolean needsPagination = getMaxPage() > 0 && isAutomaticPaginationEnabled;
-
-        Inventory inventory = Bukkit.createInventory(this, (getPageSize()),
-            name.replace("{currentPage}", String.valueOf(currentPage + 1))
-                .replace("{maxPage}", String.valueOf(getMaxPage()))
-        );
-
-        // Add the main inventory items.
-        for (int slot = currentPage * getPageSize(); slot < (currentPage + 1) * getPageSize(); slot++) {
-            // If we've already reached the maximum assigned slot, stop assigning
-            // slots.
-            if (slot > getHighestFilledSlot()) break;
-
-            if (items.containsKey(slot))
-                getButton(slot).put(inventory, slot - (currentPage * getPageSize()));
+
+        return getMaxPage() > 0 && isAutomaticPaginationEnabled;
+    }
+
+    /**
+     * Returns the index of the virtual menu entry displayed in the specified slot,
+     * or -1 if the slot isn't a content slot.
+     */
+    private int getProviderIndex(int slot) {
+        int pageSize = getPageSize();
+        int contentSlot = getContentSlots()[slot % pageSize];
+        if (contentSlot < 0)
+            return -1;
+
+        return (slot / pageSize) * contentSlotsPerPage + contentSlot;
+    }
+
+    /**
+     * Returns, for each slot of a page, its position among the content slots of the
+     * page (or -1 for stickied slots and the pagination row).
+     */
+    private int[] getContentSlots() {
+        int pageSize = getPageSize();
+
+        // The pagination row is only reserved when it's rendered. This can't use
+        // needsPagination(), as that depends on the number of pages.
+        boolean isAutomaticPaginationEnabled = menuAPI.isAutomaticPaginationEnabled();
+        if (isAutomaticPaginationEnabled() != null)
+            isAutomaticPaginationEnabled = isAutomaticPaginationEnabled();
+
+        if (contentSlots != null && contentSlots.length == pageSize && contentSlotsPaginated == isAutomaticPaginationEnabled)
+            return contentSlots;
+
+        int[] slots = new int[pageSize];
+        int count = 0;
+        for (int slot = 0; slot < pageSize; slot++) {
+            boolean reserved = isStickiedSlot(slot) || (isAutomaticPaginationEnabled && slot >= pageSize - 9);
+            slots[slot] = reserved ? -1 : count++;
         }
 
-        // Update the stickied slots.
-        for (int stickiedSlot : stickiedSlots)
-            getButton(stickiedSlot).put(inventory, stickiedSlot);
+        this.contentSlots = slots;
+        this.contentSlotsPerPage = count;
+        this.contentSlotsPaginated = isAutomaticPaginationEnabled;
+        return slots;
+    }
 
-        // Render the pagination items.
-        if (needsPagination) {
-            SGPaginationButtonBuilder paginationButtonBuilder = menuAPI.getDefaultPaginationButtonBuilder();
-            if (getPaginationButtonBuilder() != null)
-                paginationButtonBuilder = getPaginationButtonBuilder();
+    /**
+     * An inventory shared by every viewer of a page, along with the title it was created with.
+     */
+    private static final class SharedInventory {
+        private final Inventory inventory;
+        private final String title;
 
-            int pageSize = getPageSize();
-            for (int slot = pageSize - 9; slot < pageSize; slot++) {
-                int offset = slot - pageSize;
+        private SharedInventory(Inventory inventory, String title) {
+            this.inventory = inventory;
+            this.title = title;
+        }
+    }
+
+    /**
+     * The icon writes of a render that were still pending when it finished, by slot, along
+     * with the deadline after which each slot displays the timeout icon.
+     * <p>
+     * A slot that was already pending in the previous render of the inventory keeps its
+     * deadline, so re-rendering an inventory never postpones its timeout icons.
+     */
+    private static final class PendingRender {
+        private final int generation;
+        private final long timeoutNanos;
+
+        private final Map<Integer, CompletableFuture<Void>> writes = new HashMap<>();
+        private final Map<Integer, Long> deadlines = new HashMap<>();
+        /** The slots showing the timeout icon, and the slots whose timeout has been counted. */
+        private final Set<Integer> shown = new HashSet<>();
+        private final Set<Integer> counted = new HashSet<>();
+
+        /** The deadlines and counted timeouts of the previous render (not the render itself, so renders aren't chained). */
+        private final Map<Integer, Long> previousDeadlines;
+        private final Set<Integer> previousCounted;
+
+        private PendingRender(int generation, PendingRender previous, long timeoutMillis) {
+            this.generation = generation;
+            this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            this.previousDeadlines = previous != null ? previous.deadlines : Collections.emptyMap();
+            this.previousCounted = previous != null ? previous.counted : Collections.emptySet();
+        }
+
+        private void track(int slot, CompletableFuture<Void> write) {
+            if (write.isDone()) return;
 
-                SGButton paginationButton = paginationButtonBuilder.buildPaginationButton(
-                        SGPaginationButtonType.forSlot(offset),this
-                );
+            writes.put(slot, write);
+            if (timeoutNanos <= 0) return;
 
-                if (paginationButton != null)
-                    paginationButton.put(inventory, slot);
+            Long deadline = previousDeadlines.get(slot);
+            if (deadline == null) {
+                deadline = System.nanoTime() + timeoutNanos;
+            } else if (previousCounted.contains(slot)) {
+                counted.add(slot);
             }
+
+            deadlines.put(slot, deadline);
         }
 
-        return inventory;
+        private boolean isDone() {
+            for (CompletableFuture<Void> write : writes.values())
+                if (!write.isDone()) return false;
+
+            return true;
+        }
     }
 
 }
@@ -0,0 +1,152 @@
+package xyz.nifti.gui.buttons;
+
+import org.bukkit.ChatColor;
+import org.bukkit.Material;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.ItemMeta;
+import xyz.nifti.gui.MenuAPI;
+import xyz.nifti.gui.SGMenu;
+import xyz.nifti.gui.text.ColorTranslator;
+import xyz.nifti.gui.text.PlaceholderTemplate;
+
+import java.util.*;
+
+/**
+ * A button described by a {@link ConfigurationSection}, compiled once so it can be created many times.
+ * <p>
+ * The section's <code>material</code>, <code>name</code> and <code>lore</code> are read a single time:
+ * the material is resolved up front (an unknown material falls back to the {@link MenuAPI#getDefaultIcon() default icon}),
+ * and the name and lore are kept as {@link PlaceholderTemplate templates}. The icon without placeholders
+ * is built once; icons with placeholders are color translated after substitution, so placeholders
+ * may supply color codes (i.e. <code>&amp;{color}</code>).
+ * <p>
+ * Definitions are immutable and cached per section by {@link MenuAPI#getButtonDefinition(ConfigurationSection)}.
+ *
+ * @see SGMenu#button(ConfigurationSection)
+ * @see SGMenu#button(ConfigurationSection, Map)
+ *
+ * @version 1.2.4
+ */
+public final class ButtonDefinition {
+    private final Material material;
+    private final PlaceholderTemplate name;
+    private final List<PlaceholderTemplate> lore;
+
+    /** The icon without placeholders, built on first use. */
+    private volatile CachedIcon icon;
+
+
+    private ButtonDefinition(Material material, PlaceholderTemplate name, List<PlaceholderTemplate> lore) {
+        this.material = material;
+        this.name = name;
+        this.lore = lore;
+    }
+
+    /**
+     * Compiles the button described by the specified section.
+     *
+     * @param config The section describing the button.
+     * @return The compiled button definition.
+     */
+    public static ButtonDefinition compile(ConfigurationSection config) {
+        Material material = Material.getMaterial(config.getString("material", "null"));
+
+        PlaceholderTemplate name = PlaceholderTemplate.of(config.getString("name", "null"));
+
+        List<PlaceholderTemplate> lore = new ArrayList<>();
+        for (String line : config.getStringList("lore"))
+            lore.add(PlaceholderTemplate.of(line));
+
+        return new ButtonDefinition(material, name, Collections.unmodifiableList(lore));
+    }
+
+    /**
+     * @return The material of the button, or null if it uses the default icon.
+     */
+    public Material getMaterial() {
+        return material;
+    }
+
+    /**
+     * Creates the icon of the button, without substituting any placeholders.
+     * <p>
+     * The icon is built once (per default icon) and {@link xyz.nifti.gui.item.IconCache#intern(ItemStack) interned},
+     * and every call returns a copy of it, which may be modified freely.
+     *
+     * @param defaultIcon The icon used if the button has no material.
+     * @return A copy of the icon of the button.
+     */
+    public ItemStack createIcon(ItemStack defaultIcon) {
+        ItemStack base = material == null ? defaultIcon : null;
+
+        // Buttons without a material are rebuilt if the default icon has changed since.
+        CachedIcon cached = icon;
+        if (cached != null && cached.base == base) return cached.icon.clone();
+
+        List<String> lines = new ArrayList<>(lore.size());
+        for (PlaceholderTemplate line : lore)
+            lines.add(ColorTranslator.translate(line.getSource()));
+
+        cached = new CachedIcon(base, MenuAPI.getIconCache().intern(build(defaultIcon, ColorTranslator.translate(name.getSource()), lines)));
+        icon = cached;
+
+        return cached.icon.clone();
+    }
+
+    /**
+     * Creates the icon of the button, substituting the specified placeholders in its name and lore.
+     * Color codes are translated after substitution, so they may come from the template, the
+     * placeholder values, or both.
+     * <p>
+     * As with {@link #createIcon(ItemStack)}, the returned icon may be modified freely.
+     *
+     * @param defaultIcon The icon used if the button has no material.
+     * @param placeholders The placeholder keys, mapped to the values to replace them with.
+     * @return The icon of the button.
+     */
+    public ItemStack createIcon(ItemStack defaultIcon, Map<String, String> placeholders) {
+        if (placeholders.isEmpty()) return createIcon(defaultIcon);
+
+        List<String> lines = new ArrayList<>(lore.size());
+        for (PlaceholderTemplate line : lore)
+            lines.add(translate(line.fill(placeholders)));
+
+        // Substituted icons are usually unique (i.e. per player), so they aren't interned.
+        return build(defaultIcon, translate(name.fill(placeholders)), lines);
+    }
+
+    /* INTERNAL */
+
+    /**
+     * Translates substituted text directly, rather than through the {@link ColorTranslator} cache,
+     * as it's usually unique (i.e. per player) and would only evict the constant texts.
+     */
+    private static String translate(String text) {
+        return text.indexOf('&') < 0 ? text : ChatColor.translateAlternateColorCodes('&', text);
+    }
+
+    private ItemStack build(ItemStack defaultIcon, String name, List<String> lore) {
+        ItemStack stack = material != null ? new ItemStack(material) : defaultIcon.clone();
+
+        ItemMeta meta = stack.getItemMeta();
+        if (meta != null) {
+            meta.setDisplayName(name);
+            meta.setLore(lore);
+            stack.setItemMeta(meta);
+        }
+
+        return stack;
+    }
+
+    private static final class CachedIcon {
+        private final ItemStack base;
+        private final ItemStack icon;
+
+        private CachedIcon(ItemStack base, ItemStack icon) {
+            this.base = base;
+            this.icon = icon;
+        }
+    }
+
+}
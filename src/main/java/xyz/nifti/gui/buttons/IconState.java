@@ -0,0 +1,15 @@
+package xyz.nifti.gui.buttons;
+
+/**
+ * The state of an {@link SGButton}'s icon.
+ *
+ * @see SGButton#getIconState()
+ */
+public enum IconState {
+    /** The icon is available and can be written into an inventory straight away. */
+    READY,
+    /** The icon is still being resolved (or hasn't been requested yet). */
+    PENDING,
+    /** Resolving the icon failed, so there is nothing to display. */
+    FAILED
+}
@@ -4,8 +4,14 @@ import org.bukkit.Bukkit;
 import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.ItemStack;
 import xyz.nifti.gui.MenuAPI;
+import xyz.nifti.gui.render.RenderBatch;
 
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 
 /**
  * An SGButton represents a clickable item in an SGMenu (GUI).
@@ -20,23 +26,112 @@ import java.util.concurrent.CompletableFuture;
  */
 public class SGButton {
     private SGClickListener listener;
-    private CompletableFuture<ItemStack> icon;
+
+    /** The icon, when the button was created with an already built {@link ItemStack}. */
+    private volatile ItemStack readyIcon;
+    /** The icon, when it is resolved asynchronously. Null for ready icons and unstarted suppliers. */
+    private volatile CompletableFuture<ItemStack> icon;
+    /** Supplies the icon through {@link MenuAPI#getIconScheduler()} the first time it is needed. */
+    private volatile Supplier<ItemStack> iconSupplier;
+
+    /** The supplier of a started icon, kept so the icon can be started again if its job is cancelled. */
+    private Supplier<ItemStack> startedSupplier;
+    /** The number of renders waiting for the started icon. */
+    private int renderWaiters;
+    /** Whether the icon's future was handed out by {@link #getIconFuture()}, so it must never be cancelled. */
+    private volatile boolean iconObserved;
 
     /**
      * Creates an SGButton with the specified {@link ItemStack} as it's 'icon' in the inventory.
+     * <p>
+     * The icon is {@link IconState#READY ready} straight away, so it is written into
+     * inventories synchronously when rendered.
      *
      * @param icon The desired 'icon' for the SGButton.
      */
     public SGButton(ItemStack icon){
-        this.icon = CompletableFuture.supplyAsync(() -> icon);
+        this.readyIcon = icon;
     }
 
+    /**
+     * Creates an SGButton whose 'icon' is resolved by the specified future.
+     * <p>
+     * The button is {@link IconState#PENDING pending} until the future completes.
+     *
+     * @param icon The future resolving the desired 'icon' for the SGButton.
+     */
     public SGButton(CompletableFuture<ItemStack> icon) {
         this.icon = icon;
     }
 
+    /**
+     * Creates an SGButton whose 'icon' is built by the specified supplier.
+     * <p>
+     * The supplier is queued with the {@link MenuAPI#getIconScheduler() icon scheduler} the first
+     * time the icon is needed, rather than run on the main thread or the common pool. It is
+     * queued under the menu it's first rendered in, so it's cancelled if that menu is closed
+     * before the job starts (and started again the next time the icon is needed).
+     *
+     * @param icon The supplier building the desired 'icon' for the SGButton.
+     */
+    public SGButton(Supplier<ItemStack> icon) {
+        this.iconSupplier = icon;
+    }
+
+    /**
+     * Puts the SGButton's icon into the specified inventory slot.
+     * <p>
+     * If the icon is already resolved and this is called on the main thread, the icon
+     * is written immediately. Otherwise, it is written by the plugin's {@link RenderBatch}
+     * once it has been resolved, together with every other icon resolved in the same tick.
+     * Icons that {@link IconState#FAILED failed} to resolve are not written.
+     *
+     * @param inventory The inventory to put the icon into.
+     * @param slot The slot to put the icon into.
+     */
     public void put(Inventory inventory, int slot) {
-        icon.thenAccept((item) -> Bukkit.getScheduler().runTask(MenuAPI.getPlugin(), () -> inventory.setItem(slot, item)));
+        if (getIconState() == IconState.READY && Bukkit.isPrimaryThread()) {
+            inventory.setItem(slot, getIcon());
+            return;
+        }
+
+        getIconFuture().thenAccept(item -> MenuAPI.getRenderBatch().add(inventory, slot, item));
+    }
+
+    /**
+     * Puts the SGButton's icon into the specified inventory slot, as part of a render
+     * of the inventory.
+     * <p>
+     * This behaves like {@link #put(Inventory, int)}, except an icon resolved asynchronously
+     * is dropped if the inventory has been rendered again in the meantime (see
+     * {@link RenderBatch#nextGeneration(Inventory)}).
+     * <p>
+     * The returned future completes once the icon has been queued. Cancelling it withdraws
+     * this render's interest in the icon: if nothing else is waiting for an icon built by a
+     * {@link #SGButton(Supplier) supplier}, its job is cancelled (and started again the next
+     * time the icon is needed).
+     *
+     * @param inventory The inventory to put the icon into.
+     * @param slot The slot to put the icon into.
+     * @param generation The render generation of the inventory.
+     * @return A future completed once the icon has been handed to the {@link RenderBatch}.
+     */
+    public CompletableFuture<Void> put(Inventory inventory, int slot, int generation) {
+        if (getIconState() == IconState.READY && Bukkit.isPrimaryThread()) {
+            inventory.setItem(slot, getIcon());
+            return CompletableFuture.completedFuture(null);
+        }
+
+        CompletableFuture<ItemStack> icon;
+        synchronized (this) {
+            icon = startIcon(inventory.getHolder());
+            renderWaiters++;
+        }
+
+        CompletableFuture<Void> write = icon.thenAccept(item -> MenuAPI.getRenderBatch().add(inventory, slot, item, generation));
+        write.whenComplete((ignored, error) -> release(icon));
+
+        return write;
     }
 
     /**
@@ -72,11 +167,95 @@ public class SGButton {
     /**
      * Returns the {@link ItemStack} that will be used as the SGButton's icon in the
      * SGMenu (GUI).
+     * <p>
+     * If the icon is still {@link IconState#PENDING pending}, this waits for it to be resolved,
+     * for at most the global {@link MenuAPI#getIconTimeout() icon timeout}. A button may be
+     * displayed by several menus, so per-menu timeouts (see {@link xyz.nifti.gui.SGMenu#setIconTimeout(long)})
+     * only apply to the slots a menu renders, not to this method.
      *
-     * @return The icon ({@link ItemStack}) that will be used to represent the button.
+     * @return The icon ({@link ItemStack}) that will be used to represent the button,
+     *         or null if it wasn't resolved in time.
      */
     public ItemStack getIcon() {
-        return icon.join();
+        CompletableFuture<ItemStack> icon = this.icon;
+        if (icon == null && iconSupplier == null) return readyIcon;
+
+        long timeout = MenuAPI.getIconTimeout();
+        if (timeout <= 0) return getIconFuture().join();
+
+        try {
+            return getIconFuture().get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            // Fail the same way join() would.
+            throw new CompletionException(e.getCause());
+        }
+    }
+
+    /**
+     * Returns a future resolving the SGButton's icon, starting the icon's supplier
+     * if it hasn't been started yet.
+     * <p>
+     * For {@link IconState#READY ready} icons, this returns an already completed future.
+     *
+     * @return The future resolving the icon ({@link ItemStack}) of the button.
+     */
+    public CompletableFuture<ItemStack> getIconFuture() {
+        CompletableFuture<ItemStack> icon = this.icon;
+        if (icon != null && iconObserved) return icon;
+
+        synchronized (this) {
+            // Whoever holds the future may wait on it, so it can no longer be cancelled.
+            iconObserved = true;
+            return startIcon(null);
+        }
+    }
+
+    /**
+     * Starts resolving the SGButton's icon ahead of it being displayed, if it isn't resolved yet.
+     * <p>
+     * Unlike {@link #getIconFuture()}, this doesn't prevent the icon's job from being cancelled
+     * once it's no longer needed by any render.
+     *
+     * @param owner The menu the icon is prefetched for, whose closing cancels the icon's job if it
+     *              hasn't started yet, or null if the job belongs to no menu.
+     * @return The future resolving the icon, or null if the icon is already resolved.
+     */
+    public CompletableFuture<ItemStack> prefetchIcon(Object owner) {
+        if (getIconState() != IconState.PENDING) return null;
+
+        synchronized (this) {
+            CompletableFuture<ItemStack> icon = startIcon(owner);
+            return icon.isDone() ? null : icon;
+        }
+    }
+
+    /**
+     * Returns the current {@link IconState state} of the SGButton's icon.
+     *
+     * @return Whether the icon is ready, still pending or failed to resolve.
+     */
+    public IconState getIconState() {
+        CompletableFuture<ItemStack> icon = this.icon;
+
+        if (icon == null) return iconSupplier == null ? IconState.READY : IconState.PENDING;
+        if (!icon.isDone()) return IconState.PENDING;
+
+        return icon.isCompletedExceptionally() ? IconState.FAILED : IconState.READY;
+    }
+
+    /**
+     * Returns whether the SGButton's icon has been resolved, i.e. whether
+     * {@link #getIcon()} would return without waiting.
+     *
+     * @return True if the icon is available, false if it is still being resolved or failed.
+     */
+    public boolean isIconReady() {
+        return getIconState() == IconState.READY;
     }
 
     /**
@@ -84,8 +263,85 @@ public class SGButton {
      *
      * @param icon The icon ({@link ItemStack}) that will be used to represent the button.
      */
-    public void setIcon(CompletableFuture<ItemStack> icon) {
+    public synchronized void setIcon(ItemStack icon) {
+        this.readyIcon = icon;
+        this.icon = null;
+        this.iconSupplier = null;
+        resetIconJob();
+    }
+
+    /**
+     * Changes the SGButton's icon.
+     *
+     * @param icon The future resolving the icon ({@link ItemStack}) that will be used to represent the button.
+     */
+    public synchronized void setIcon(CompletableFuture<ItemStack> icon) {
+        this.readyIcon = null;
+        this.icon = icon;
+        this.iconSupplier = null;
+        resetIconJob();
+    }
+
+    /* INTERNAL */
+
+    /**
+     * Returns the future of the icon, queuing the icon's supplier under the specified owner
+     * if it hasn't been started. Must be called while synchronized on the button.
+     */
+    private CompletableFuture<ItemStack> startIcon(Object owner) {
+        if (this.icon != null) return this.icon;
+
+        Supplier<ItemStack> supplier = iconSupplier;
+        if (supplier == null) return CompletableFuture.completedFuture(readyIcon);
+
+        // The scheduler skips the supplier if the icon was cancelled before the job got to run.
+        CompletableFuture<ItemStack> icon = MenuAPI.getIconScheduler().supply(owner, supplier);
+        icon.whenComplete((item, error) -> {
+            if (icon.isCancelled()) restoreSupplier(icon);
+        });
+
         this.icon = icon;
+        this.iconSupplier = null;
+        this.startedSupplier = supplier;
+        return icon;
+    }
+
+    /**
+     * Called when a render stops waiting for the icon. Once no render is waiting for an icon
+     * built by a supplier, and nobody else holds its future, the job is cancelled and the
+     * supplier is restored, so the icon is built again when it's next needed.
+     */
+    private synchronized void release(CompletableFuture<ItemStack> icon) {
+        // The icon was replaced in the meantime, so the waiter was already forgotten.
+        if (icon != this.icon) return;
+
+        renderWaiters--;
+        if (renderWaiters > 0 || icon.isDone() || iconObserved || startedSupplier == null) return;
+
+        icon.cancel(false);
+        this.icon = null;
+        this.iconSupplier = startedSupplier;
+        this.startedSupplier = null;
+    }
+
+    /**
+     * Called when the job of a started icon is cancelled (i.e. its menu was closed before it
+     * ran), so the icon is built again the next time it's needed rather than left failed.
+     */
+    private synchronized void restoreSupplier(CompletableFuture<ItemStack> icon) {
+        // The icon was replaced, or already restored by release(...).
+        if (icon != this.icon || startedSupplier == null) return;
+
+        this.icon = null;
+        this.iconSupplier = startedSupplier;
+        this.startedSupplier = null;
+        this.renderWaiters = 0;
+    }
+
+    private void resetIconJob() {
+        this.startedSupplier = null;
+        this.renderWaiters = 0;
+        this.iconObserved = false;
     }
 
 }
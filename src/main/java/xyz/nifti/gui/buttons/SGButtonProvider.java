@@ -0,0 +1,54 @@
+package xyz.nifti.gui.buttons;
+
+import java.util.function.IntFunction;
+
+/**
+ * Supplies the entries of a virtual {@link xyz.nifti.gui.SGMenu SGMenu} on demand.
+ * <p>
+ * Instead of adding every entry as an {@link SGButton} up front, a menu backed by a provider
+ * only asks for the entries of the page being viewed, so menus with tens of thousands of
+ * entries don't have to build or hold all of their icons.
+ *
+ * @see xyz.nifti.gui.SGMenu#setButtonProvider(SGButtonProvider)
+ */
+public interface SGButtonProvider {
+
+    /**
+     * Returns the total number of entries.
+     * This is used to work out how many pages the menu has.
+     *
+     * @return The number of entries the provider can supply.
+     */
+    int size();
+
+    /**
+     * Builds the button for the entry with the specified index.
+     * This is intended to implemented by lambda when you create the provider.
+     *
+     * @param index The index of the entry, from 0 to {@link #size()} - 1.
+     * @return The button representing that entry, or null if it shouldn't be displayed.
+     */
+    SGButton getButton(int index);
+
+    /**
+     * Creates a provider with a fixed number of entries.
+     *
+     * @param size The number of entries.
+     * @param buttons The function building the button for each entry index.
+     * @return The created provider.
+     */
+    static SGButtonProvider of(int size, IntFunction<SGButton> buttons) {
+        return new SGButtonProvider() {
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public SGButton getButton(int index) {
+                return buttons.apply(index);
+            }
+        };
+    }
+
+}
@@ -6,8 +6,14 @@ import org.bukkit.OfflinePlayer;
 import org.bukkit.enchantments.Enchantment;
 import org.bukkit.inventory.ItemFlag;
 import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.Damageable;
 import org.bukkit.inventory.meta.ItemMeta;
 import org.bukkit.inventory.meta.SkullMeta;
+import xyz.nifti.gui.MenuAPI;
+import xyz.nifti.gui.SGMenu;
+import xyz.nifti.gui.render.IconScheduler;
+import xyz.nifti.gui.text.ColorTranslator;
+import xyz.nifti.gui.text.PlaceholderTemplate;
 
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
@@ -20,6 +26,9 @@ import java.util.concurrent.CompletableFuture;
  * @see ItemBuilder
  */
 public class AsyncItemBuilder {
+    /** The number of stacks built per task by {@link #buildAll(Collection)}. */
+    public static final int DEFAULT_CHUNK_SIZE = 16;
+
     private Material material;
     private int amount = 1;
     private OfflinePlayer skullOwner;
@@ -76,7 +85,7 @@ public class AsyncItemBuilder {
      * @return The {@link AsyncItemBuilder} instance.
      */
     public AsyncItemBuilder name(String name) {
-        this.name = ChatColor.translateAlternateColorCodes('&', name);
+        this.name = ColorTranslator.translate(name);
         return this;
     }
 
@@ -140,7 +149,7 @@ public class AsyncItemBuilder {
      * @return The {@link AsyncItemBuilder} instance.
      */
     public AsyncItemBuilder lore(List<String> lore) {
-        lore.replaceAll(textToTranslate -> ChatColor.translateAlternateColorCodes('&', textToTranslate));
+        lore.replaceAll(ColorTranslator::translate);
 
         this.lore = lore;
         return this;
@@ -160,11 +169,9 @@ public class AsyncItemBuilder {
      * @return The {@link ItemBuilder} instance.
      */
     public AsyncItemBuilder lore(List<String> lore, Map<String, String> placeholders) {
-        lore.replaceAll(textToTranslate -> ChatColor.translateAlternateColorCodes('&', textToTranslate));
-
-        placeholders.forEach((key, value) -> lore.replaceAll(line -> line.replaceAll(key, value)));
+        lore.replaceAll(ColorTranslator::translate);
 
-        this.lore = lore;
+        this.lore = PlaceholderTemplate.fill(lore, placeholders);
 
         return this;
     }
@@ -325,8 +332,8 @@ public class AsyncItemBuilder {
      * If the item has {@link SkullMeta} (i.e. if the item is a skull), this can
      * be used to set the skull's owner (i.e. the player the skull represents.)
      * <p>
-     * This also sets the skull's data value to 3 for 'player head', as setting
-     * the skull's owner doesn't make much sense for the mob skulls.
+     * The owner is resolved through the {@link MenuAPI#getSkullCache() skull cache} when the
+     * stack is built, so heads of the same player only resolve their owner once.
      *
      * @param player The name of the player the skull item should resemble.
      * @return The {@link AsyncItemBuilder} instance.
@@ -359,40 +366,166 @@ public class AsyncItemBuilder {
     /**
      * Returns the {@link ItemStack} that the {@link AsyncItemBuilder} instance represents.
      * <p>
-     * The modifications are performed as they are called, so this method simply returns
-     * the class's private stack field.
+     * The stack is built by a job queued with the {@link MenuAPI#getIconScheduler() icon scheduler},
+     * which belongs to no menu. The returned stack is built for the caller alone, so it may be modified freely.
      *
+     * @see #get(SGMenu)
      * @return The manipulated ItemStack.
      */
     public CompletableFuture<ItemStack> get() {
-        return CompletableFuture.supplyAsync(() -> {
-            ItemStack item = new ItemStack(getType());
-            ItemMeta meta = item.getItemMeta();
+        return get(null);
+    }
+
+    /**
+     * Returns the {@link ItemStack} that the {@link AsyncItemBuilder} instance represents,
+     * building it as an icon of the specified menu.
+     * <p>
+     * This behaves like {@link #get()}, except the job is queued under the menu, so it takes
+     * its turn with the icons of other menus, and is cancelled (completing the returned future
+     * with a {@link java.util.concurrent.CancellationException}) if the menu is closed before
+     * the job starts.
+     *
+     * @param menu The menu the stack is an icon of, or null if it belongs to no menu.
+     * @return The manipulated ItemStack.
+     */
+    public CompletableFuture<ItemStack> get(SGMenu menu) {
+        IconScheduler scheduler = MenuAPI.getIconScheduler();
+
+        // Heads start from their owner's cached skull meta. If it's still being resolved, the head is
+        // built by the resolving job as soon as it's done, rather than by a second trip through the scheduler.
+        if (isPlayerHead()) {
+            CompletableFuture<SkullMeta> skull = MenuAPI.getSkullCache().get(getSkullOwner(), menu);
+            if (!skull.isDone() || skull.isCompletedExceptionally()) return skull.thenApply(this::build);
+
+            SkullMeta meta = skull.join();
+            return scheduler.supply(menu, () -> build(meta));
+        }
+
+        return scheduler.supply(menu, () -> build(null));
+    }
+
+    /**
+     * An alias for {@link #buildAll(Collection, int)} with the chunk size set to {@link #DEFAULT_CHUNK_SIZE}.
+     *
+     * @param builders The builders of the stacks.
+     * @return A future completed with the built stacks, in the order of the builders.
+     */
+    public static CompletableFuture<List<ItemStack>> buildAll(Collection<AsyncItemBuilder> builders) {
+        return buildAll(builders, DEFAULT_CHUNK_SIZE, null);
+    }
+
+    /**
+     * An alias for {@link #buildAll(Collection, int, SGMenu)} with the chunk size set to {@link #DEFAULT_CHUNK_SIZE}.
+     *
+     * @param builders The builders of the stacks.
+     * @param menu The menu the stacks are icons of, or null if they belong to no menu.
+     * @return A future completed with the built stacks, in the order of the builders.
+     */
+    public static CompletableFuture<List<ItemStack>> buildAll(Collection<AsyncItemBuilder> builders, SGMenu menu) {
+        return buildAll(builders, DEFAULT_CHUNK_SIZE, menu);
+    }
+
+    /**
+     * An alias for {@link #buildAll(Collection, int, SGMenu)} with the menu set to null.
+     *
+     * @param builders The builders of the stacks.
+     * @param chunkSize The maximum number of stacks built by each task.
+     * @return A future completed with the built stacks, in the order of the builders.
+     */
+    public static CompletableFuture<List<ItemStack>> buildAll(Collection<AsyncItemBuilder> builders, int chunkSize) {
+        return buildAll(builders, chunkSize, null);
+    }
+
+    /**
+     * Builds every stack of the specified builders, returning a single future for all of them.
+     * <p>
+     * The builders are split into chunks, and each chunk is built by one job queued with the
+     * {@link MenuAPI#getIconScheduler() icon scheduler}, so building a large menu submits a handful
+     * of jobs rather than one per stack. Player heads are built as their owner is resolved,
+     * as with {@link #get(SGMenu)}.
+     * <p>
+     * The jobs are queued under the specified menu, so they take turns with the icons of
+     * other menus, and are cancelled if the menu is closed before they start.
+     *
+     * @param builders The builders of the stacks.
+     * @param chunkSize The maximum number of stacks built by each task.
+     * @param menu The menu the stacks are icons of, or null if they belong to no menu.
+     * @return A future completed with the built stacks, in the order of the builders.
+     */
+    public static CompletableFuture<List<ItemStack>> buildAll(Collection<AsyncItemBuilder> builders, int chunkSize, SGMenu menu) {
+        if (chunkSize < 1)
+            throw new IllegalArgumentException("Chunk size must be at least 1!");
 
-            if (getAmount() != 1) item.setAmount(getAmount());
+        AsyncItemBuilder[] pending = builders.toArray(new AsyncItemBuilder[0]);
+        ItemStack[] items = new ItemStack[pending.length];
+        List<CompletableFuture<?>> tasks = new ArrayList<>();
 
-            if (getDurability() != 0) item.setDurability(getDurability());
+        // Heads wait for their owner, so they can't be built as part of a chunk.
+        int[] chunk = new int[Math.min(chunkSize, pending.length)];
+        int chunkLength = 0;
 
-            if (meta != null) {
-                if (getName() != null) meta.setDisplayName(getName());
-                if (!getLore().isEmpty()) meta.setLore(getLore());
-                if (getCustomModelData() != null) meta.setCustomModelData(getCustomModelData());
+        for (int index = 0; index < pending.length; index++) {
+            int slot = index;
 
-                meta.addItemFlags(getFlags());
-                getEnchants().forEach((enchantment, level) -> meta.addEnchant(enchantment, level, true));
+            if (pending[index].isPlayerHead()) {
+                tasks.add(pending[index].get(menu).thenAccept(item -> items[slot] = item));
+                continue;
+            }
 
-                if (getSkullOwner() != null) {
-                    if (meta instanceof SkullMeta) {
-                        SkullMeta skull = (SkullMeta) meta;
-                        item.setDurability((byte) 3);
-                        skull.setOwningPlayer(getSkullOwner());
-                    }
-                }
+            chunk[chunkLength++] = index;
+            if (chunkLength == chunk.length) {
+                tasks.add(buildChunk(pending, Arrays.copyOf(chunk, chunkLength), items, menu));
+                chunkLength = 0;
             }
+        }
 
-            item.setItemMeta(meta);
+        if (chunkLength > 0) tasks.add(buildChunk(pending, Arrays.copyOf(chunk, chunkLength), items, menu));
+
+        return CompletableFuture.allOf(tasks.toArray(new CompletableFuture[0]))
+                .thenApply(ignored -> Arrays.asList(items));
+    }
+
+    /**
+     * Builds the stacks of the builders at the specified indexes in a single task.
+     */
+    private static CompletableFuture<Void> buildChunk(AsyncItemBuilder[] builders, int[] indexes, ItemStack[] items, SGMenu menu) {
+        return MenuAPI.getIconScheduler().supply(menu, () -> {
+            for (int index : indexes)
+                items[index] = builders[index].build(null);
 
-            return item;
+            return null;
         });
     }
+
+    /**
+     * Returns whether the stack is a player head with an owner, which is built from its owner's skull meta.
+     */
+    private boolean isPlayerHead() {
+        return getSkullOwner() != null && getType() == Material.PLAYER_HEAD;
+    }
+
+    /**
+     * Builds the stack, starting from the specified meta if one is supplied.
+     */
+    private ItemStack build(ItemMeta baseMeta) {
+        ItemStack item = new ItemStack(getType());
+        ItemMeta meta = baseMeta != null ? baseMeta : item.getItemMeta();
+
+        if (getAmount() != 1) item.setAmount(getAmount());
+
+        if (meta != null) {
+            if (getName() != null) meta.setDisplayName(getName());
+            if (!getLore().isEmpty()) meta.setLore(getLore());
+            if (getCustomModelData() != null) meta.setCustomModelData(getCustomModelData());
+
+            // The durability is stored in the meta, so it must be set there to survive setItemMeta.
+            if (getDurability() != 0 && meta instanceof Damageable damageable) damageable.setDamage(getDurability());
+
+            meta.addItemFlags(getFlags());
+            getEnchants().forEach((enchantment, level) -> meta.addEnchant(enchantment, level, true));
+        }
+
+        item.setItemMeta(meta);
+        return item;
+    }
 }
@@ -0,0 +1,209 @@
+package xyz.nifti.gui.item;
+
+import org.bukkit.Material;
+import org.bukkit.enchantments.Enchantment;
+import org.bukkit.inventory.ItemFlag;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.Damageable;
+import org.bukkit.inventory.meta.ItemMeta;
+import xyz.nifti.gui.MenuAPI;
+
+import java.util.*;
+
+/**
+ * Deduplicates identical icons, so that equal {@link ItemStack ItemStacks} share one instance.
+ * <p>
+ * Icons are looked up by a fingerprint of their material, amount, durability, name, lore, flags,
+ * enchantments and custom model data. When a cached icon has the same fingerprint, it is only
+ * returned if it is also {@link ItemStack#isSimilar(ItemStack) similar} to the icon being interned,
+ * so icons differing in meta that isn't part of the fingerprint are never merged.
+ * <p>
+ * The cache keeps the most recently used icons, up to a maximum number, so the memory used by
+ * icons scales with the number of distinct icons rather than with the number of slots.
+ * <p>
+ * <b>Interned icons are shared</b> and must never be modified, so only intern icons that
+ * are never handed out, and hand out {@link ItemStack#clone() copies} of them instead.
+ * This class is thread-safe.
+ *
+ * @see MenuAPI#getIconCache()
+ *
+ * @version 1.2.4
+ */
+public final class IconCache {
+    private int maxSize;
+
+    private final Map<Fingerprint, ItemStack> icons = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Fingerprint, ItemStack> eldest) {
+            if (size() <= maxSize) return false;
+
+            evictions++;
+            return true;
+        }
+    };
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+
+    /**
+     * Creates an icon cache.
+     *
+     * @param maxSize The maximum number of distinct icons kept.
+     */
+    public IconCache(int maxSize) {
+        setMaxSize(maxSize);
+    }
+
+    /**
+     * Returns the shared instance of an icon equal to the specified icon.
+     * <p>
+     * If no equal icon is cached yet, the specified icon becomes the shared instance.
+     *
+     * @param icon The icon to intern.
+     * @return The shared icon, or the specified icon itself if it can't be shared (i.e. null or air).
+     */
+    public synchronized ItemStack intern(ItemStack icon) {
+        if (icon == null || icon.getType() == Material.AIR || maxSize == 0) return icon;
+
+        Fingerprint fingerprint = new Fingerprint(icon);
+        ItemStack cached = icons.get(fingerprint);
+
+        if (cached != null && cached.getAmount() == icon.getAmount() && cached.isSimilar(icon)) {
+            hits++;
+            return cached;
+        }
+
+        misses++;
+
+        // Don't replace a cached icon by one that only shares its fingerprint.
+        if (cached == null) icons.put(fingerprint, icon);
+        return icon;
+    }
+
+    /**
+     * Sets the maximum number of distinct icons kept, evicting the
+     * least recently used icons if there are more than that.
+     *
+     * @param maxSize The maximum number of icons, or 0 to disable the cache.
+     */
+    public synchronized void setMaxSize(int maxSize) {
+        if (maxSize < 0)
+            throw new IllegalArgumentException("Icon cache size can't be negative!");
+
+        this.maxSize = maxSize;
+
+        Iterator<ItemStack> iterator = icons.values().iterator();
+        while (icons.size() > maxSize && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * @return The maximum number of distinct icons kept.
+     */
+    public synchronized int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return The number of icons currently cached.
+     */
+    public synchronized int size() {
+        return icons.size();
+    }
+
+    /**
+     * @return The number of times an icon was replaced by a cached equal icon.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return The number of times no equal icon was cached.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return The number of icons evicted to stay within the maximum size.
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Removes every cached icon. Icons already shared by buttons are not affected.
+     */
+    public synchronized void clear() {
+        icons.clear();
+    }
+
+    /* INTERNAL */
+
+    /**
+     * The properties of an icon the cache is keyed by.
+     */
+    private static final class Fingerprint {
+        private final Material material;
+        private final int amount;
+        private final int damage;
+        private final String name;
+        private final List<String> lore;
+        private final Set<ItemFlag> flags;
+        private final Map<Enchantment, Integer> enchants;
+        private final Integer customModelData;
+        private final int hash;
+
+        private Fingerprint(ItemStack icon) {
+            this.material = icon.getType();
+            this.amount = icon.getAmount();
+
+            ItemMeta meta = icon.hasItemMeta() ? icon.getItemMeta() : null;
+            if (meta != null) {
+                this.damage = meta instanceof Damageable damageable ? damageable.getDamage() : 0;
+                this.name = meta.hasDisplayName() ? meta.getDisplayName() : null;
+                this.lore = meta.hasLore() ? meta.getLore() : null;
+                this.flags = meta.getItemFlags();
+                this.enchants = meta.getEnchants();
+                this.customModelData = meta.hasCustomModelData() ? meta.getCustomModelData() : null;
+            } else {
+                this.damage = 0;
+                this.name = null;
+                this.lore = null;
+                this.flags = Collections.emptySet();
+                this.enchants = Collections.emptyMap();
+                this.customModelData = null;
+            }
+
+            this.hash = Objects.hash(material, amount, damage, name, lore, flags, enchants, customModelData);
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (this == object) return true;
+            if (!(object instanceof Fingerprint other)) return false;
+
+            return hash == other.hash
+                    && material == other.material
+                    && amount == other.amount
+                    && damage == other.damage
+                    && Objects.equals(name, other.name)
+                    && Objects.equals(lore, other.lore)
+                    && flags.equals(other.flags)
+                    && enchants.equals(other.enchants)
+                    && Objects.equals(customModelData, other.customModelData);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+}
@@ -1,15 +1,16 @@
 package xyz.nifti.gui.item;
 
-import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.Material;
 import org.bukkit.OfflinePlayer;
 import org.bukkit.enchantments.Enchantment;
 import org.bukkit.inventory.ItemFlag;
 import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.Damageable;
 import org.bukkit.inventory.meta.ItemMeta;
 import org.bukkit.inventory.meta.SkullMeta;
-import xyz.nifti.gui.MenuAPI;
+import xyz.nifti.gui.text.ColorTranslator;
+import xyz.nifti.gui.text.PlaceholderTemplate;
 
 import java.util.Arrays;
 import java.util.List;
@@ -23,6 +24,9 @@ import java.util.function.Predicate;
  * The class wraps an ItemStack object and provides convenient chainable, 'builder-pattern' methods for
  * manipulating the stack's metadata.
  * <p>
+ * The stack's {@link ItemMeta} is only fetched once and modified in place by every method; it is
+ * written back to the stack a single time, when the stack is {@link #get() retrieved}.
+ * <p>
  * The intention is that this class will be used in builder form - for example;
  * <pre>
  * new ItemBuilder(Material.SPONGE).name("&amp;cAlmighty sponge").amount(21).build();
@@ -35,6 +39,11 @@ import java.util.function.Predicate;
 public class ItemBuilder {
     private final ItemStack stack;
 
+    /** The working copy of the stack's meta, fetched on first use. */
+    private ItemMeta meta;
+    /** Whether {@link #meta} has changes that haven't been written to the stack yet. */
+    private boolean metaChanged;
+
     /* CONSTRUCT */
 
     /**
@@ -64,7 +73,10 @@ public class ItemBuilder {
      * @return The {@link ItemBuilder} instance.
      */
     public ItemBuilder type(Material material) {
+        // The meta type depends on the material, so write the pending changes first.
+        commitMeta();
         stack.setType(material);
+        meta = null;
         return this;
     }
 
@@ -86,9 +98,7 @@ public class ItemBuilder {
      * @return The {@link ItemBuilder} instance.
      */
     public ItemBuilder name(String name) {
-        ItemMeta stackMeta = stack.getItemMeta();
-        stackMeta.setDisplayName(ChatColor.translateAlternateColorCodes('&', name));
-        stack.setItemMeta(stackMeta);
+        editMeta().setDisplayName(ColorTranslator.translate(name));
         return this;
     }
 
@@ -97,19 +107,17 @@ public class ItemBuilder {
      * Color codes using the ampersand (&amp;) are translated, if you want to avoid this,
      * you should wrap your name argument with a {@link ChatColor#stripColor(String)} call.
      * <p>
-     * {@link String#replaceAll(String, String) Replaces} all {@code placeholders} in {@link String}
+     * Replaces all {@code placeholders} in {@link String} using a {@link PlaceholderTemplate}
      *
      * @param name The desired display name of the item stack.
      * @param placeholders Placeholders to replace
      * @return The {@link ItemBuilder} instance.
      */
     public ItemBuilder name(String name, Map<String, String> placeholders) {
-        for (Map.Entry<String, String> placeholder : placeholders.entrySet())
-            name = name.replaceAll(placeholder.getKey(), placeholder.getValue());
+        name = PlaceholderTemplate.of(name).fill(placeholders);
 
-        ItemMeta stackMeta = stack.getItemMeta();
-            stackMeta.setDisplayName(ChatColor.translateAlternateColorCodes('&', name));
-        stack.setItemMeta(stackMeta);
+        // The substituted name is rarely repeated, so it isn't worth caching its translation.
+        editMeta().setDisplayName(ChatColor.translateAlternateColorCodes('&', name));
         return this;
     }
 
@@ -127,8 +135,9 @@ public class ItemBuilder {
      * @return The item's display name as returned from its {@link ItemMeta}.
      */
     public String getName() {
-        if (!stack.hasItemMeta() || !stack.getItemMeta().hasDisplayName()) return null;
-        return stack.getItemMeta().getDisplayName();
+        ItemMeta meta = getMeta();
+        if (meta == null || !meta.hasDisplayName()) return null;
+        return meta.getDisplayName();
     }
 
     /**
@@ -176,13 +185,9 @@ public class ItemBuilder {
      * @return The {@link ItemBuilder} instance.
      */
     public ItemBuilder lore(List<String> lore, Map<String, String> placeholders) {
-        lore.replaceAll(textToTranslate -> ChatColor.translateAlternateColorCodes('&', textToTranslate));
+        lore.replaceAll(ColorTranslator::translate);
 
-        placeholders.forEach((key, value) -> lore.replaceAll(line -> line.replaceAll(key, value)));
-
-        ItemMeta stackMeta = stack.getItemMeta();
-            stackMeta.setLore(lore);
-        stack.setItemMeta(stackMeta);
+        editMeta().setLore(PlaceholderTemplate.fill(lore, placeholders));
         return this;
     }
 
@@ -198,11 +203,9 @@ public class ItemBuilder {
      * @return The {@link ItemBuilder} instance.
      */
     public ItemBuilder lore(List<String> lore) {
-        lore.replaceAll(textToTranslate -> ChatColor.translateAlternateColorCodes('&', textToTranslate));
+        lore.replaceAll(ColorTranslator::translate);
 
-        ItemMeta stackMeta = stack.getItemMeta();
-        stackMeta.setLore(lore);
-        stack.setItemMeta(stackMeta);
+        editMeta().setLore(lore);
         return this;
     }
 
@@ -216,9 +219,10 @@ public class ItemBuilder {
      * @return The lore of the item.
      */
     public List<String> getLore() {
-        if (stack.getItemMeta() == null || !stack.getItemMeta().hasLore()) return null;
-        
-        return stack.getItemMeta().getLore();
+        ItemMeta meta = getMeta();
+        if (meta == null || !meta.hasLore()) return null;
+
+        return meta.getLore();
     }
 
     /**
@@ -253,7 +257,12 @@ public class ItemBuilder {
      * @return The updated {@link ItemBuilder} object.
      */
     public ItemBuilder durability(short durability) {
-        stack.setDurability(durability);
+        // The durability is stored in the meta, so set it on the working copy.
+        if (getMeta() instanceof Damageable damageable) {
+            damageable.setDamage(durability);
+            metaChanged = true;
+        }
+
         return this;
     }
 
@@ -263,7 +272,8 @@ public class ItemBuilder {
      * @return The durability of the item.
      */
     public short getDurability() {
-        return stack.getDurability();
+        if (getMeta() instanceof Damageable damageable) return (short) damageable.getDamage();
+        return 0;
     }
 
     /**
@@ -275,7 +285,7 @@ public class ItemBuilder {
      * @return The appropriate {@link ItemDataColor} of the item or null.
      */
     public ItemDataColor getColor() {
-        return ItemDataColor.getByValue((short) stack.getDurability());
+        return ItemDataColor.getByValue(getDurability());
     }
 
     /**
@@ -289,7 +299,7 @@ public class ItemBuilder {
      * @return The {@link ItemBuilder} instance.
      */
     public ItemBuilder enchant(Enchantment enchantment, int level) {
-        stack.addUnsafeEnchantment(enchantment, level);
+        editMeta().addEnchant(enchantment, level, true);
         return this;
     }
 
@@ -300,7 +310,7 @@ public class ItemBuilder {
      * @return The {@link ItemBuilder} instance.
      */
     public ItemBuilder unenchant(Enchantment enchantment) {
-        stack.removeEnchantment(enchantment);
+        editMeta().removeEnchant(enchantment);
         return this;
     }
 
@@ -312,9 +322,7 @@ public class ItemBuilder {
      * @return The {@link ItemBuilder} instance.
      */
     public ItemBuilder customModelData(Integer customModelData) {
-        ItemMeta meta = stack.getItemMeta();
-        meta.setCustomModelData(customModelData);
-        stack.setItemMeta(meta);
+        editMeta().setCustomModelData(customModelData);
         return this;
     }
 
@@ -325,9 +333,7 @@ public class ItemBuilder {
      * @return The {@link ItemBuilder} instance.
      */
     public ItemBuilder flag(ItemFlag ...flag) {
-        ItemMeta meta = stack.getItemMeta();
-        meta.addItemFlags(flag);
-        stack.setItemMeta(meta);
+        editMeta().addItemFlags(flag);
         return this;
     }
 
@@ -338,9 +344,7 @@ public class ItemBuilder {
      * @return The {@link ItemBuilder} instance.
      */
     public ItemBuilder deflag(ItemFlag ...flag) {
-        ItemMeta meta = stack.getItemMeta();
-        meta.removeItemFlags(flag);
-        stack.setItemMeta(meta);
+        editMeta().removeItemFlags(flag);
         return this;
     }
 
@@ -350,21 +354,19 @@ public class ItemBuilder {
      * <p>
      * This also sets the skull's data value to 3 for 'player head', as setting
      * the skull's owner doesn't make much sense for the mob skulls.
+     * <p>
+     * The owner is set before the stack is returned by {@link #get()}. To build many heads
+     * off the main thread, with their owners cached, use {@link AsyncItemBuilder#skullOwner(OfflinePlayer)}.
      *
      * @param player The name of the player the skull item should resemble.
      * @return The {@link ItemBuilder} instance.
      */
     public ItemBuilder skullOwner(OfflinePlayer player) {
-        if (!(stack.getItemMeta() instanceof SkullMeta)) return this;
+        if (!(getMeta() instanceof SkullMeta skull)) return this;
 
-        stack.setDurability((byte) 3);
-
-        // Set skull meta async
-        Bukkit.getScheduler().runTaskAsynchronously(MenuAPI.getPlugin(), () -> {
-            SkullMeta meta = (SkullMeta) stack.getItemMeta();
-            meta.setOwningPlayer(player);
-            stack.setItemMeta(meta);
-        });
+        durability((short) 3);
+        skull.setOwningPlayer(player);
+        metaChanged = true;
 
         return this;
     }
@@ -407,14 +409,47 @@ public class ItemBuilder {
     /**
      * Returns the {@link ItemStack} that the {@link ItemBuilder} instance represents.
      *
-     * The modifications are performed as they are called, so this method simply returns
-     * the class's private stack field.
+     * The modifications are performed on a working copy of the stack's meta, so this method
+     * writes that meta to the stack (once, if it changed) and returns the class's private stack field.
      *
      * @return The manipulated ItemStack.
      */
     public ItemStack get() {
+        commitMeta();
         return stack;
     }
 
+    /* META */
+
+    /**
+     * Returns the working copy of the stack's meta, fetching it from the stack the first time.
+     *
+     * @return The working meta, or null if the stack's type can't have meta (i.e. air).
+     */
+    private ItemMeta getMeta() {
+        if (meta == null) meta = stack.getItemMeta();
+        return meta;
+    }
+
+    /**
+     * Returns the working copy of the stack's meta, marking it as changed.
+     *
+     * @return The working meta.
+     */
+    private ItemMeta editMeta() {
+        metaChanged = true;
+        return getMeta();
+    }
+
+    /**
+     * Writes the working meta to the stack, if it has changed since it was last written.
+     */
+    private void commitMeta() {
+        if (!metaChanged || meta == null) return;
+
+        stack.setItemMeta(meta);
+        metaChanged = false;
+    }
+
 }
 
@@ -0,0 +1,222 @@
+package xyz.nifti.gui.item;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.inventory.meta.SkullMeta;
+import xyz.nifti.gui.MenuAPI;
+import xyz.nifti.gui.render.IconScheduler;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Caches the resolved {@link SkullMeta} of player heads by the UUID of their owner.
+ * <p>
+ * Resolving the owner of a head is done once per owner by a job queued with the
+ * {@link MenuAPI#getIconScheduler() icon scheduler}, and the result is reused until it expires.
+ * Concurrent lookups of the same owner share a single resolution, so a page showing the same
+ * player many times (or many players opening the same leaderboard) only resolves each owner once.
+ * <p>
+ * Every lookup returns a copy of the cached meta, which the caller is free to modify.
+ * This class is thread-safe.
+ *
+ * @see MenuAPI#getSkullCache()
+ * @see AsyncItemBuilder#skullOwner(OfflinePlayer)
+ *
+ * @version 1.2.4
+ */
+public final class SkullCache {
+    private int maxSize;
+    private long expiryNanos;
+
+    private final Map<UUID, CachedSkull> skulls = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<UUID, CachedSkull> eldest) {
+            return size() > maxSize;
+        }
+    };
+    private final Map<UUID, Resolution> resolving = new HashMap<>();
+
+    /** The scheduler resolutions are queued with (looked up lazily, as it's created after the cache), and how owners are resolved. */
+    private final Supplier<IconScheduler> scheduler;
+    private final Function<OfflinePlayer, SkullMeta> resolver;
+
+
+    /**
+     * Creates a skull cache.
+     *
+     * @param maxSize The maximum number of owners kept.
+     * @param expiry How long a resolved skull is kept.
+     * @param unit The unit of the expiry.
+     */
+    public SkullCache(int maxSize, long expiry, TimeUnit unit) {
+        this(maxSize, expiry, unit, MenuAPI::getIconScheduler, SkullCache::resolve);
+    }
+
+    /**
+     * Creates a skull cache resolving owners with the specified function, on the specified scheduler.
+     */
+    SkullCache(int maxSize, long expiry, TimeUnit unit, Supplier<IconScheduler> scheduler, Function<OfflinePlayer, SkullMeta> resolver) {
+        this.scheduler = scheduler;
+        this.resolver = resolver;
+
+        setMaxSize(maxSize);
+        setExpiry(expiry, unit);
+    }
+
+    /**
+     * An alias for {@link #get(OfflinePlayer, Object)} with the menu set to null.
+     *
+     * @param owner The owner of the skull.
+     * @return A future completed with a copy of the owner's skull meta.
+     */
+    public CompletableFuture<SkullMeta> get(OfflinePlayer owner) {
+        return get(owner, null);
+    }
+
+    /**
+     * Returns the skull meta of a player head owned by the specified player.
+     * <p>
+     * If the owner isn't cached (or has expired), the owner is resolved asynchronously,
+     * unless they are already being resolved, in which case that resolution is shared.
+     * A new resolution is queued under the specified menu, so it is cancelled if the menu
+     * is closed before it starts (callers from other menus then queue it again).
+     *
+     * @param owner The owner of the skull.
+     * @param menu The menu the skull is displayed in (or any other owner of the job, see
+     *             {@link IconScheduler#supply(Object, Supplier)}), or null if it belongs to no menu.
+     * @return A future completed with a copy of the owner's skull meta.
+     */
+    public CompletableFuture<SkullMeta> get(OfflinePlayer owner, Object menu) {
+        UUID uuid = owner.getUniqueId();
+        Resolution resolution;
+
+        synchronized (this) {
+            CachedSkull cached = skulls.get(uuid);
+            if (cached != null && System.nanoTime() - cached.resolvedAt < expiryNanos)
+                return CompletableFuture.completedFuture(cached.meta.clone());
+
+            // A failed (or cancelled) resolution may still be registered until its completion is handled.
+            resolution = resolving.get(uuid);
+            if (resolution == null || resolution.future.isCompletedExceptionally()) {
+                CompletableFuture<SkullMeta> future = scheduler.get().supply(menu, () -> resolver.apply(owner));
+                resolution = new Resolution(future, menu);
+                resolving.put(uuid, resolution);
+
+                future.whenComplete((meta, error) -> completed(uuid, future, meta));
+            }
+        }
+
+        Resolution shared = resolution;
+
+        // Each caller gets its own copy, as they will go on to modify it.
+        return shared.future.thenApply(SkullMeta::clone).exceptionallyComposeAsync(error -> {
+            // The resolution was cancelled along with another menu, which doesn't concern this caller.
+            // This is retried off the completing thread, once the cancelled resolution is no longer shared.
+            if (shared.future.isCancelled() && shared.menu != menu) return get(owner, menu);
+
+            return CompletableFuture.failedFuture(error);
+        }, scheduler.get().getExecutor());
+    }
+
+    /**
+     * Removes the cached skull of the specified owner, so it is resolved again on its next lookup.
+     *
+     * @param owner The UUID of the owner.
+     */
+    public synchronized void invalidate(UUID owner) {
+        skulls.remove(owner);
+    }
+
+    /**
+     * Removes every cached skull.
+     */
+    public synchronized void clear() {
+        skulls.clear();
+    }
+
+    /**
+     * Sets the maximum number of owners kept, evicting the
+     * least recently used owners if there are more than that.
+     *
+     * @param maxSize The maximum number of owners, or 0 to disable caching.
+     */
+    public synchronized void setMaxSize(int maxSize) {
+        if (maxSize < 0)
+            throw new IllegalArgumentException("Skull cache size can't be negative!");
+
+        this.maxSize = maxSize;
+
+        Iterator<CachedSkull> iterator = skulls.values().iterator();
+        while (skulls.size() > maxSize && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * @return The maximum number of owners kept.
+     */
+    public synchronized int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets how long resolved skulls are kept before their owner is resolved again.
+     *
+     * @param expiry How long a resolved skull is kept.
+     * @param unit The unit of the expiry.
+     */
+    public synchronized void setExpiry(long expiry, TimeUnit unit) {
+        this.expiryNanos = unit.toNanos(expiry);
+    }
+
+    /**
+     * @return The number of owners currently cached.
+     */
+    public synchronized int size() {
+        return skulls.size();
+    }
+
+    /* INTERNAL */
+
+    private static SkullMeta resolve(OfflinePlayer owner) {
+        SkullMeta meta = (SkullMeta) Bukkit.getItemFactory().getItemMeta(Material.PLAYER_HEAD);
+        meta.setOwningPlayer(owner);
+        return meta;
+    }
+
+    private synchronized void completed(UUID owner, CompletableFuture<SkullMeta> future, SkullMeta meta) {
+        // A cancelled resolution may already have been replaced.
+        Resolution resolution = resolving.get(owner);
+        if (resolution != null && resolution.future == future) resolving.remove(owner);
+
+        // Failed resolutions aren't cached, so the next lookup tries again.
+        if (meta != null) skulls.put(owner, new CachedSkull(meta, System.nanoTime()));
+    }
+
+    private static final class Resolution {
+        private final CompletableFuture<SkullMeta> future;
+        private final Object menu;
+
+        private Resolution(CompletableFuture<SkullMeta> future, Object menu) {
+            this.future = future;
+            this.menu = menu;
+        }
+    }
+
+    private static final class CachedSkull {
+        private final SkullMeta meta;
+        private final long resolvedAt;
+
+        private CachedSkull(SkullMeta meta, long resolvedAt) {
+            this.meta = meta;
+            this.resolvedAt = resolvedAt;
+        }
+    }
+
+}
@@ -0,0 +1,129 @@
+package xyz.nifti.gui.menu;
+
+import org.bukkit.entity.Player;
+import xyz.nifti.gui.MenuAPI;
+import xyz.nifti.gui.SGMenu;
+
+import java.util.*;
+
+/**
+ * Keeps track of every open {@link SGMenu} and the players viewing it.
+ * <p>
+ * Open menus are indexed by viewer, by menu and by tag, and the indexes are updated by the
+ * {@link SGMenuListener} as menus are opened and closed. Lookups therefore cost time proportional
+ * to the number of matches, rather than to the number of online players.
+ * <p>
+ * This class is thread-safe, as menus may be looked up off the main thread (i.e. by
+ * {@link SGMenu#requestRefreshViewers()}).
+ *
+ * @see MenuAPI#findOpenWithTag(String)
+ * @see MenuAPI#findOpen(SGMenu)
+ *
+ * @version 1.2.4
+ */
+public final class OpenMenuRegistry {
+    private final Map<UUID, SGOpenMenu> byViewer = new HashMap<>();
+    private final Map<SGMenu, Map<UUID, SGOpenMenu>> byMenu = new HashMap<>();
+    private final Map<String, Map<UUID, SGOpenMenu>> byTag = new HashMap<>();
+
+
+    /**
+     * Registers that the player opened the specified menu, replacing
+     * any menu previously registered for that player.
+     *
+     * @param menu The opened menu.
+     * @param player The player viewing the menu.
+     */
+    public synchronized void open(SGMenu menu, Player player) {
+        close(player);
+
+        SGOpenMenu openMenu = new SGOpenMenu(menu, player);
+        byViewer.put(player.getUniqueId(), openMenu);
+        byMenu.computeIfAbsent(menu, key -> new LinkedHashMap<>()).put(player.getUniqueId(), openMenu);
+        byTag.computeIfAbsent(menu.getTag(), key -> new LinkedHashMap<>()).put(player.getUniqueId(), openMenu);
+    }
+
+    /**
+     * Registers that the player closed whichever menu they had open.
+     *
+     * @param player The player who closed the menu.
+     */
+    public synchronized void close(Player player) {
+        SGOpenMenu openMenu = byViewer.remove(player.getUniqueId());
+        if (openMenu == null) return;
+
+        remove(byMenu, openMenu.getGUI(), player.getUniqueId());
+        remove(byTag, openMenu.getGUI().getTag(), player.getUniqueId());
+    }
+
+    /**
+     * Moves the viewers of a menu to a different tag.
+     * This is called when the tag of a menu changes.
+     *
+     * @param menu The menu whose tag changed.
+     * @param oldTag The previous tag of the menu.
+     * @param newTag The new tag of the menu.
+     */
+    public synchronized void retag(SGMenu menu, String oldTag, String newTag) {
+        Map<UUID, SGOpenMenu> viewers = byMenu.get(menu);
+        if (viewers == null || Objects.equals(oldTag, newTag)) return;
+
+        for (UUID viewer : viewers.keySet())
+            remove(byTag, oldTag, viewer);
+
+        byTag.computeIfAbsent(newTag, key -> new LinkedHashMap<>()).putAll(viewers);
+    }
+
+    /**
+     * Returns the open menu of the specified player.
+     *
+     * @param player The player to look up.
+     * @return The menu the player has open, or null if they don't have a menu open.
+     */
+    public synchronized SGOpenMenu get(Player player) {
+        return byViewer.get(player.getUniqueId());
+    }
+
+    /**
+     * Returns every open menu with the specified tag.
+     *
+     * @param tag The tag to search for, or null for untagged menus.
+     * @return A new list of the open menus with that tag.
+     */
+    public synchronized List<SGOpenMenu> findByTag(String tag) {
+        Map<UUID, SGOpenMenu> viewers = byTag.get(tag);
+        return viewers == null ? new ArrayList<>() : new ArrayList<>(viewers.values());
+    }
+
+    /**
+     * Returns every viewer of the specified menu.
+     *
+     * @param menu The menu to search for.
+     * @return A new list of the open instances of that menu.
+     */
+    public synchronized List<SGOpenMenu> findByMenu(SGMenu menu) {
+        Map<UUID, SGOpenMenu> viewers = byMenu.get(menu);
+        return viewers == null ? new ArrayList<>() : new ArrayList<>(viewers.values());
+    }
+
+    /**
+     * Returns whether the specified menu is open for at least one player.
+     *
+     * @param menu The menu to check.
+     * @return True if the menu has viewers.
+     */
+    public synchronized boolean isOpen(SGMenu menu) {
+        return byMenu.containsKey(menu);
+    }
+
+    /* INTERNAL */
+
+    private static <K> void remove(Map<K, Map<UUID, SGOpenMenu>> index, K key, UUID viewer) {
+        Map<UUID, SGOpenMenu> viewers = index.get(key);
+        if (viewers == null) return;
+
+        viewers.remove(viewer);
+        if (viewers.isEmpty()) index.remove(key);
+    }
+
+}
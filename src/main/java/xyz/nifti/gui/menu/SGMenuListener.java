@@ -4,13 +4,17 @@ import org.bukkit.inventory.PlayerInventory;
 import xyz.nifti.gui.MenuAPI;
 import xyz.nifti.gui.SGMenu;
 import xyz.nifti.gui.buttons.SGButton;
-import xyz.nifti.gui.pagination.SGPaginationButtonBuilder;
-import xyz.nifti.gui.pagination.SGPaginationButtonType;
+import xyz.nifti.gui.render.RenderedPage;
+import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.inventory.InventoryClickEvent;
 import org.bukkit.event.inventory.InventoryCloseEvent;
 import org.bukkit.event.inventory.InventoryDragEvent;
+import org.bukkit.event.inventory.InventoryOpenEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.server.PluginDisableEvent;
 import org.bukkit.plugin.java.JavaPlugin;
 
 public class SGMenuListener implements Listener {
@@ -48,43 +52,33 @@ public class SGMenuListener implements Listener {
                     event.setCancelled(true);
             }
 
-            // If the slot is on the pagination row, get the appropriate pagination handler.
-            if (menuAPI.isAutomaticPaginationEnabled() && event.getRawSlot() > menu.getPageSize()) {
-                int offset = event.getRawSlot() - menu.getPageSize();
-                SGPaginationButtonBuilder paginationButtonBuilder = menuAPI.getDefaultPaginationButtonBuilder();
+            // Resolve the clicked button from the page rendered into the inventory.
+            RenderedPage page = menu.getRenderedPage(event.getInventory());
+            SGButton button = page.getButton(event.getRawSlot());
 
-                if (menu.getPaginationButtonBuilder() != null) {
-                    paginationButtonBuilder = menu.getPaginationButtonBuilder();
+            // Listeners see the page of the clicking viewer through menu.getCurrentPage().
+            menu.runWithContextPage(page.getPage(), () -> {
+                // If the slot holds a pagination button, only its handler is called.
+                if (page.isPaginationSlot(event.getRawSlot())) {
+                    if (button.getListener() != null) button.getListener().onClick(event);
+                    return;
                 }
 
-                SGPaginationButtonType buttonType = SGPaginationButtonType.forSlot(offset);
-                SGButton paginationButton = paginationButtonBuilder.buildPaginationButton(buttonType, menu);
-                if (paginationButton != null) paginationButton.getListener().onClick(event);
-                return;
-            }
-            
-            // If the slot is a stickied slot, get the button from page 0.
-            if (menu.isStickiedSlot(event.getRawSlot())) {
-                SGButton button = menu.getButton(0, event.getRawSlot());
-                if (button != null && button.getListener() != null) button.getListener().onClick(event);
-            } else {
-                // Otherwise, get the button normally.
-                SGButton button = menu.getButton(menu.getCurrentPage(), event.getRawSlot());
                 if (button != null && button.getListener() != null)
                     button.getListener().onClick(event);
-            }
 
-            // if the slot is an editable slot, don't cancel current event
-            if (menu.isEditableSlot(event.getRawSlot()))
-                event.setCancelled(false);
+                // if the slot is an editable slot, don't cancel current event
+                if (menu.isEditableSlot(event.getRawSlot()))
+                    event.setCancelled(false);
 
-            // cancel if shift click tries to put item into non-editable slot
-            if (event.getClickedInventory() instanceof PlayerInventory && event.getClick().isShiftClick())
-                event.setCancelled(!menu.isEditableSlot(menu.getFirstAvailableSlot()));
+                // cancel if shift click tries to put item into non-editable slot
+                if (event.getClickedInventory() instanceof PlayerInventory && event.getClick().isShiftClick())
+                    event.setCancelled(!menu.acceptsShiftClick(event.getInventory(), event.getCurrentItem()));
 
-            // call custom click listener if it exists
-            if (menu.getOnClick() != null)
-                menu.getOnClick().onClick(event);
+                // call custom click listener if it exists
+                if (menu.getOnClick() != null)
+                    menu.getOnClick().onClick(event);
+            });
 
         }
 
@@ -115,12 +109,33 @@ public class SGMenuListener implements Listener {
             }
 
             // if each slot is an editable slot, don't cancel current event
-            if (event.getRawSlots().stream().allMatch(menu::isEditableSlot))
+            if (menu.areEditableSlots(event.getRawSlots()))
                 event.setCancelled(false);
 
             // call custom drag listener if it exists
             if (menu.getOnDragItem() != null)
-                menu.getOnDragItem().onDrag(event);
+                menu.runWithContextPage(menu.getRenderedPage(event.getInventory()).getPage(), () -> menu.getOnDragItem().onDrag(event));
+
+        }
+
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onInventoryOpen(InventoryOpenEvent event) {
+        // Determine if the inventory was a SpiGUI.
+        if (event.getInventory().getHolder() != null && event.getInventory().getHolder() instanceof SGMenu menu) {
+
+            // Check if the GUI is owner by the current plugin
+            // (if not, it'll be deferred to the SGMenuListener registered
+            // by that plugin that does own the GUI.)
+            if (!menu.getOwner().equals(owner)) return;
+
+            // Register the viewer, so the menu can be found without scanning every player.
+            if (event.getPlayer() instanceof Player player)
+                menuAPI.getOpenMenus().open(menu, player);
+
+            // The viewer is now on whichever page was rendered into the inventory.
+            menu.trackOpenedPage(event.getPlayer(), event.getInventory());
 
         }
 
@@ -136,13 +151,46 @@ public class SGMenuListener implements Listener {
             // by that plugin that does own the GUI.)
             if (!menu.getOwner().equals(owner)) return;
 
+            // The player is no longer viewing the menu.
+            if (event.getPlayer() instanceof Player player)
+                menuAPI.getOpenMenus().close(player);
+
+            menu.forgetViewer(event.getPlayer());
+
+            // Nothing was rendered into the inventory (or it has already been discarded), so there's nothing to clean up.
+            RenderedPage rendered = menu.findRenderedPage(event.getInventory());
+            if (rendered == null) return;
+
+            // The close listener still sees the page the viewer was on.
+            int page = rendered.getPage();
+
+            // Once nobody else is viewing the inventory, everything rendered into it can go.
+            if (event.getViewers().size() <= 1)
+                menu.discardRenderedPage(event.getInventory());
+
             // If all the above is true and the inventory's onClose is not null,
             // call it.
             if (menu.getOnClose() != null)
-                menu.getOnClose().onClose(event, menu.getCloseStatus());
+                menu.runWithContextPage(page, () -> menu.getOnClose().onClose(event, menu.getCloseStatus()));
 
         }
 
     }
 
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        // The close event should have done this already, but make sure no quitting player is left behind.
+        SGOpenMenu openMenu = menuAPI.getOpenMenus().get(event.getPlayer());
+        if (openMenu != null) openMenu.getGUI().forgetViewer(event.getPlayer());
+
+        menuAPI.getOpenMenus().close(event.getPlayer());
+    }
+
+    @EventHandler
+    public void onPluginDisable(PluginDisableEvent event) {
+        // Stop resolving icons once the plugin that owns the library is gone.
+        if (event.getPlugin().equals(owner))
+            menuAPI.shutdown();
+    }
+
 }
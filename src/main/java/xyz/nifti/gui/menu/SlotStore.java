@@ -0,0 +1,313 @@
+package xyz.nifti.gui.menu;
+
+import xyz.nifti.gui.SGMenu;
+import xyz.nifti.gui.buttons.SGButton;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.function.IntPredicate;
+
+/**
+ * Stores the {@link SGButton buttons} of an {@link SGMenu} by slot.
+ * <p>
+ * Slots are kept in fixed-size chunks (one chunk roughly being one page), held in a growable
+ * array indexed by chunk number, so buttons are addressed directly by their primitive slot
+ * number without any boxing or hashing. Chunks that don't contain any button are never
+ * allocated, so a button in a very high slot costs one chunk plus one reference per chunk
+ * below it, rather than a table spanning every slot below it.
+ * <p>
+ * The highest filled slot, the first free slot and the number of buttons are kept up to date
+ * as buttons are added and removed, so reading them is O(1).
+ *
+ * @see SGMenu
+ *
+ * @version 1.2.4
+ */
+public final class SlotStore {
+    /** The number of slots per chunk, the size of the largest possible page rounded up to a power of two. */
+    private static final int CHUNK_SIZE = 64;
+    private static final int CHUNK_SHIFT = 6;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private static final Chunk[] NO_CHUNKS = new Chunk[0];
+
+    private Chunk[] chunks = NO_CHUNKS;
+
+    private int size = 0;
+    private int highestFilledSlot = -1;
+    private int firstFreeSlot = 0;
+
+
+    /**
+     * Returns the button in the specified slot.
+     *
+     * @param slot The slot to get the button from.
+     * @return The button in that slot, or null if there is none.
+     */
+    public SGButton get(int slot) {
+        if (slot < 0 || slot > highestFilledSlot) return null;
+
+        Chunk chunk = chunks[slot >>> CHUNK_SHIFT];
+        return chunk == null ? null : chunk.buttons[slot & CHUNK_MASK];
+    }
+
+    /**
+     * Returns whether the specified slot contains a button.
+     *
+     * @param slot The slot to check.
+     * @return True if the slot contains a button.
+     */
+    public boolean contains(int slot) {
+        return get(slot) != null;
+    }
+
+    /**
+     * Puts the button into the specified slot, replacing any button that was there.
+     * Supplying null as the button removes the button from the slot.
+     * <p>
+     * Negative slots are ignored.
+     *
+     * @param slot The slot to put the button in.
+     * @param button The button to put, or null.
+     * @return The button previously in that slot, or null if there was none.
+     */
+    public SGButton put(int slot, SGButton button) {
+        if (slot < 0) return null;
+        if (button == null) return remove(slot);
+
+        Chunk chunk = chunkFor(slot);
+
+        SGButton previous = chunk.buttons[slot & CHUNK_MASK];
+        chunk.buttons[slot & CHUNK_MASK] = button;
+        if (previous != null) return previous;
+
+        chunk.count++;
+        size++;
+
+        if (slot > highestFilledSlot) highestFilledSlot = slot;
+        if (slot == firstFreeSlot) firstFreeSlot = findFreeSlot(slot + 1);
+
+        return null;
+    }
+
+    /**
+     * Puts each button into the lowest free slot, in order - filling the gaps between
+     * existing buttons first, then appending after the highest filled slot.
+     * Null buttons are skipped.
+     * <p>
+     * The chunk table is grown once up front to hold the expected number of buttons, and the
+     * free slot search resumes where the previous button was placed, so every button costs
+     * amortized constant time.
+     *
+     * @param buttons The buttons to add.
+     * @param expected The number of buttons expected (or 0 if unknown). More (or fewer) buttons
+     *                 may be supplied, in which case the chunk table is grown as they're added.
+     */
+    public void addAll(Iterator<? extends SGButton> buttons, int expected) {
+        // Gaps are filled first, so the buttons never reach past this many slots after the highest filled one.
+        if (expected > 0) ensureChunks((int) Math.min(Integer.MAX_VALUE, (long) highestFilledSlot + expected) >>> CHUNK_SHIFT);
+
+        int slot = firstFreeSlot;
+        Chunk chunk = null;
+
+        while (buttons.hasNext()) {
+            SGButton button = buttons.next();
+            if (button == null) continue;
+
+            if (chunk == null) chunk = chunkFor(slot);
+
+            chunk.buttons[slot & CHUNK_MASK] = button;
+            chunk.count++;
+            size++;
+
+            if (slot > highestFilledSlot) highestFilledSlot = slot;
+
+            int next = findFreeSlot(slot + 1);
+            // The next free slot may be in another chunk.
+            if (next >>> CHUNK_SHIFT != slot >>> CHUNK_SHIFT) chunk = null;
+            slot = next;
+        }
+
+        firstFreeSlot = slot;
+    }
+
+    /**
+     * Removes the button from the specified slot.
+     *
+     * @param slot The slot to remove the button from.
+     * @return The removed button, or null if the slot was empty.
+     */
+    public SGButton remove(int slot) {
+        if (slot < 0 || slot > highestFilledSlot) return null;
+
+        int chunkIndex = slot >>> CHUNK_SHIFT;
+        Chunk chunk = chunks[chunkIndex];
+        if (chunk == null || chunk.buttons[slot & CHUNK_MASK] == null) return null;
+
+        SGButton previous = chunk.buttons[slot & CHUNK_MASK];
+        chunk.buttons[slot & CHUNK_MASK] = null;
+
+        // Release chunks that no longer contain anything.
+        if (--chunk.count == 0) chunks[chunkIndex] = null;
+        size--;
+
+        if (slot < firstFreeSlot) firstFreeSlot = slot;
+        if (slot == highestFilledSlot) highestFilledSlot = findFilledSlot(slot - 1);
+
+        return previous;
+    }
+
+    /**
+     * Removes every button whose slot matches the supplied predicate.
+     *
+     * @param filter The predicate, given the slot of each button, deciding whether it should be removed.
+     */
+    public void removeIf(IntPredicate filter) {
+        for (int chunkIndex = 0; chunkIndex < chunks.length; chunkIndex++) {
+            if (chunks[chunkIndex] == null) continue;
+
+            for (int offset = 0; offset < CHUNK_SIZE; offset++) {
+                int slot = (chunkIndex << CHUNK_SHIFT) | offset;
+                if (contains(slot) && filter.test(slot)) remove(slot);
+            }
+        }
+    }
+
+    /**
+     * Removes every button.
+     */
+    public void clear() {
+        chunks = NO_CHUNKS;
+
+        size = 0;
+        highestFilledSlot = -1;
+        firstFreeSlot = 0;
+    }
+
+    /**
+     * Returns the number of buttons in the store.
+     *
+     * @return The number of filled slots.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns whether the store contains no buttons.
+     *
+     * @return True if no slot is filled.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the highest slot containing a button.
+     *
+     * @return The highest filled slot, or -1 if the store is empty.
+     */
+    public int getHighestFilledSlot() {
+        return highestFilledSlot;
+    }
+
+    /**
+     * Returns the lowest slot that doesn't contain a button.
+     *
+     * @return The first free slot.
+     */
+    public int getFirstFreeSlot() {
+        return firstFreeSlot;
+    }
+
+    /**
+     * Returns the number of pages needed to display every button.
+     *
+     * @param pageSize The number of slots per page.
+     * @return The page count, which is 1 even if the store is empty.
+     */
+    public int getPageCount(int pageSize) {
+        return Math.max(1, (highestFilledSlot + pageSize) / pageSize);
+    }
+
+    /* INTERNAL */
+
+    /**
+     * Returns the chunk containing the specified slot, allocating it (and growing the chunk table) if needed.
+     */
+    private Chunk chunkFor(int slot) {
+        int chunkIndex = slot >>> CHUNK_SHIFT;
+        ensureChunks(chunkIndex);
+
+        Chunk chunk = chunks[chunkIndex];
+        if (chunk == null) chunks[chunkIndex] = chunk = new Chunk();
+
+        return chunk;
+    }
+
+    /**
+     * Grows the chunk table so it can hold the specified chunk number.
+     */
+    private void ensureChunks(int chunkIndex) {
+        if (chunkIndex < chunks.length) return;
+
+        chunks = Arrays.copyOf(chunks, Math.max(chunkIndex + 1, chunks.length * 2));
+    }
+
+    /**
+     * Finds the first free slot at or after the specified slot,
+     * skipping chunks that are completely filled.
+     */
+    private int findFreeSlot(int from) {
+        int slot = from;
+
+        while (slot <= highestFilledSlot) {
+            int chunkIndex = slot >>> CHUNK_SHIFT;
+            Chunk chunk = chunks[chunkIndex];
+
+            if (chunk == null) return slot;
+
+            if (chunk.count == CHUNK_SIZE) {
+                slot = (chunkIndex + 1) << CHUNK_SHIFT;
+                continue;
+            }
+
+            if (chunk.buttons[slot & CHUNK_MASK] == null) return slot;
+            slot++;
+        }
+
+        return slot;
+    }
+
+    /**
+     * Finds the last filled slot at or before the specified slot,
+     * skipping chunks that aren't allocated.
+     */
+    private int findFilledSlot(int from) {
+        int slot = from;
+
+        while (slot >= 0) {
+            int chunkIndex = slot >>> CHUNK_SHIFT;
+            Chunk chunk = chunks[chunkIndex];
+
+            if (chunk == null) {
+                slot = (chunkIndex << CHUNK_SHIFT) - 1;
+                continue;
+            }
+
+            if (chunk.buttons[slot & CHUNK_MASK] != null) return slot;
+            slot--;
+        }
+
+        return -1;
+    }
+
+    /**
+     * The buttons of one chunk of slots, and how many of them are filled.
+     */
+    private static final class Chunk {
+        private final SGButton[] buttons = new SGButton[CHUNK_SIZE];
+        private int count;
+    }
+
+}
@@ -0,0 +1,79 @@
+package xyz.nifti.gui.pagination;
+
+import xyz.nifti.gui.SGMenu;
+import xyz.nifti.gui.buttons.SGButton;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Caches the pagination buttons of an {@link SGMenu}.
+ * <p>
+ * Pagination buttons only depend on the {@link SGPaginationButtonBuilder}, the button type, the
+ * current page and the max page, so they are built once per combination of those and reused for
+ * every render and click until one of them changes.
+ *
+ * @see SGMenu#getPaginationButton(SGPaginationButtonType)
+ *
+ * @version 1.2.4
+ */
+public final class SGPaginationButtonCache {
+    /** The maximum number of pages whose buttons are kept. */
+    private static final int MAX_CACHED_PAGES = 16;
+
+    private static final SGPaginationButtonType[] TYPES = SGPaginationButtonType.values();
+
+    private SGPaginationButtonBuilder builder;
+    private int maxPage = -1;
+    private final Map<Integer, SGButton[]> buttons = new HashMap<>();
+    private final Map<Integer, boolean[]> built = new HashMap<>();
+
+
+    /**
+     * Returns the pagination button of the specified type, building it with the
+     * builder only if it isn't cached for these inputs yet.
+     *
+     * @param builder The pagination button builder of the menu.
+     * @param type The type of the button.
+     * @param menu The menu the button is for.
+     * @param currentPage The page the menu is currently on.
+     * @param maxPage The number of pages of the menu.
+     * @return The pagination button, or null if the builder doesn't create one for these inputs.
+     */
+    public SGButton get(SGPaginationButtonBuilder builder, SGPaginationButtonType type, SGMenu menu, int currentPage, int maxPage) {
+        // Any change to the builder or number of pages invalidates every cached button.
+        if (builder != this.builder || maxPage != this.maxPage) {
+            invalidate();
+            this.builder = builder;
+            this.maxPage = maxPage;
+        }
+
+        SGButton[] pageButtons = buttons.get(currentPage);
+        boolean[] pageBuilt = built.get(currentPage);
+        if (pageButtons == null) {
+            if (buttons.size() >= MAX_CACHED_PAGES) invalidate();
+
+            pageButtons = new SGButton[TYPES.length];
+            pageBuilt = new boolean[TYPES.length];
+            buttons.put(currentPage, pageButtons);
+            built.put(currentPage, pageBuilt);
+        }
+
+        // Builders return null for buttons that shouldn't be shown, so remember those too.
+        if (!pageBuilt[type.ordinal()]) {
+            pageButtons[type.ordinal()] = builder.buildPaginationButton(type, menu);
+            pageBuilt[type.ordinal()] = true;
+        }
+
+        return pageButtons[type.ordinal()];
+    }
+
+    /**
+     * Discards every cached button.
+     */
+    public void invalidate() {
+        buttons.clear();
+        built.clear();
+    }
+
+}
@@ -0,0 +1,238 @@
+package xyz.nifti.gui.render;
+
+import xyz.nifti.gui.MenuAPI;
+import xyz.nifti.gui.SGMenu;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Limits how many icon jobs run on the {@link MenuAPI#getIconExecutor() icon executor} at once,
+ * queuing the rest fairly between menus.
+ * <p>
+ * Every job is queued under an owner (usually the {@link SGMenu} it is for). At most
+ * {@link #getMaxInFlight()} jobs are handed to the executor at a time, and queued jobs are
+ * started in round-robin order across owners, so a menu with hundreds of icons doesn't hold
+ * up the icons of every other menu opened after it.
+ * <p>
+ * Jobs whose result was cancelled before they started are skipped, and {@link #cancel(Object)}
+ * drops every queued job of an owner (i.e. of a menu that has been closed).
+ * <p>
+ * This class is thread-safe.
+ *
+ * @see MenuAPI#getIconScheduler()
+ *
+ * @version 1.2.4
+ */
+public final class IconScheduler {
+    /** The owner of jobs that don't belong to any menu. */
+    private static final Object SHARED = new Object();
+
+    private final Executor executor;
+    private int maxInFlight;
+    private int inFlight;
+
+    /** The queued jobs of each owner, and the order in which owners get to start their next job. */
+    private final Map<Object, Deque<Job<?>>> queues = new HashMap<>();
+    private final Deque<Object> turns = new ArrayDeque<>();
+    private int queued;
+
+
+    /**
+     * Creates an icon scheduler.
+     *
+     * @param executor The executor jobs are run on.
+     * @param maxInFlight The maximum number of jobs handed to the executor at once.
+     */
+    public IconScheduler(Executor executor, int maxInFlight) {
+        this.executor = executor;
+        setMaxInFlight(maxInFlight);
+    }
+
+    /**
+     * Queues a job supplying a value, returning a future completed with it once the job has run.
+     * <p>
+     * Cancelling the returned future before the job has started removes the need to run it.
+     *
+     * @param owner The owner of the job (i.e. the menu the icon is for), or null if it has none.
+     * @param supplier The job.
+     * @param <T> The type of the supplied value.
+     * @return A future completed with the supplied value.
+     */
+    public <T> CompletableFuture<T> supply(Object owner, Supplier<T> supplier) {
+        Job<T> job = new Job<>(owner != null ? owner : SHARED, supplier);
+
+        synchronized (this) {
+            queues.computeIfAbsent(job.owner, key -> {
+                turns.add(key);
+                return new ArrayDeque<>();
+            }).add(job);
+            queued++;
+        }
+
+        dispatch();
+        return job.result;
+    }
+
+    /**
+     * Cancels every queued job of the specified owner. Jobs that have already started are left to finish.
+     *
+     * @param owner The owner whose jobs to cancel.
+     */
+    public void cancel(Object owner) {
+        Deque<Job<?>> jobs;
+        synchronized (this) {
+            jobs = queues.remove(owner);
+            if (jobs == null) return;
+
+            turns.remove(owner);
+            queued -= jobs.size();
+        }
+
+        jobs.forEach(job -> job.result.cancel(false));
+    }
+
+    /**
+     * Cancels every queued job, of every owner.
+     */
+    public void cancelAll() {
+        List<Job<?>> jobs = new ArrayList<>();
+        synchronized (this) {
+            queues.values().forEach(jobs::addAll);
+            queues.clear();
+            turns.clear();
+            queued = 0;
+        }
+
+        jobs.forEach(job -> job.result.cancel(false));
+    }
+
+    /**
+     * Sets the maximum number of jobs handed to the executor at once.
+     *
+     * @param maxInFlight The maximum number of jobs, at least 1.
+     */
+    public void setMaxInFlight(int maxInFlight) {
+        if (maxInFlight < 1)
+            throw new IllegalArgumentException("At least one icon job must be allowed to run!");
+
+        synchronized (this) {
+            this.maxInFlight = maxInFlight;
+        }
+
+        dispatch();
+    }
+
+    /**
+     * @return The executor jobs are run on.
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * @return The maximum number of jobs handed to the executor at once.
+     */
+    public synchronized int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * @return The number of jobs currently handed to the executor.
+     */
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * @return The number of jobs waiting to be handed to the executor.
+     */
+    public synchronized int getQueued() {
+        return queued;
+    }
+
+    /* INTERNAL */
+
+    /**
+     * Hands queued jobs to the executor, one owner at a time, until the in-flight limit is reached.
+     */
+    private void dispatch() {
+        while (true) {
+            Job<?> job;
+            synchronized (this) {
+                job = next();
+                if (job == null) return;
+
+                inFlight++;
+            }
+
+            try {
+                executor.execute(() -> run(job));
+            } catch (RejectedExecutionException e) {
+                // The executor has been shut down, so the job will never run.
+                finished();
+                job.result.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Returns the next job to start, skipping cancelled jobs, or null if none may start yet.
+     * Must be called while synchronized on the scheduler.
+     */
+    private Job<?> next() {
+        while (inFlight < maxInFlight && !turns.isEmpty()) {
+            Object owner = turns.poll();
+            Deque<Job<?>> jobs = queues.get(owner);
+
+            Job<?> job = jobs.poll();
+            queued--;
+
+            if (jobs.isEmpty()) queues.remove(owner);
+            else turns.add(owner);
+
+            if (!job.result.isDone()) return job;
+        }
+
+        return null;
+    }
+
+    private void run(Job<?> job) {
+        try {
+            job.run();
+        } finally {
+            finished();
+            dispatch();
+        }
+    }
+
+    private synchronized void finished() {
+        inFlight--;
+    }
+
+    private static final class Job<T> {
+        private final Object owner;
+        private final Supplier<T> supplier;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+
+        private Job(Object owner, Supplier<T> supplier) {
+            this.owner = owner;
+            this.supplier = supplier;
+        }
+
+        private void run() {
+            // The result may have been cancelled after the job was handed to the executor.
+            if (result.isDone()) return;
+
+            try {
+                result.complete(supplier.get());
+            } catch (Throwable throwable) {
+                result.completeExceptionally(throwable);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,164 @@
+package xyz.nifti.gui.render;
+
+import org.bukkit.Bukkit;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.plugin.Plugin;
+import xyz.nifti.gui.buttons.SGButton;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Queue;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Collects icons that were resolved off the main thread and applies them to their
+ * inventories in a single main-thread task.
+ * <p>
+ * Rather than scheduling one task per slot, every icon that completes before the
+ * next tick is written by the same task, so rendering a whole page of asynchronous
+ * {@link SGButton buttons} costs at most one scheduler trip per tick.
+ * <p>
+ * Every render of an inventory starts a new {@link #nextGeneration(Inventory) generation}.
+ * Icons queued for an older generation (i.e. for a page the viewer has since left) are
+ * dropped instead of being written over the newer page.
+ *
+ * @see SGButton#put(Inventory, int)
+ *
+ * @version 1.2.4
+ */
+public final class RenderBatch {
+    private final Plugin plugin;
+
+    private final Queue<PendingIcon> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    /**
+     * The current render generation of each inventory. Inventories are held weakly, as one
+     * that is rendered but never opened (and so never {@link #forget(Inventory) forgotten}) would
+     * otherwise keep its menu alive through its holder.
+     */
+    private final Map<Inventory, Integer> generations = Collections.synchronizedMap(new WeakHashMap<>());
+
+
+    /**
+     * Creates a render batch that schedules its flushes with the given plugin.
+     *
+     * @param plugin The plugin to schedule flush tasks with.
+     */
+    public RenderBatch(Plugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Queues an icon to be written into an inventory slot.
+     * <p>
+     * The icon is applied by the next flush, which is scheduled on the main thread
+     * if one isn't already pending. This method can be called from any thread.
+     *
+     * @param inventory The inventory to write the icon into.
+     * @param slot The slot to write the icon into.
+     * @param icon The icon to write.
+     */
+    public void add(Inventory inventory, int slot, ItemStack icon) {
+        queue(new PendingIcon(inventory, slot, icon, UNCONDITIONAL));
+    }
+
+    /**
+     * Queues an icon to be written into an inventory slot, if the inventory is still
+     * showing the specified render generation when the icon is applied.
+     * <p>
+     * This can be called from any thread.
+     *
+     * @param inventory The inventory to write the icon into.
+     * @param slot The slot to write the icon into.
+     * @param icon The icon to write.
+     * @param generation The render generation the icon belongs to.
+     */
+    public void add(Inventory inventory, int slot, ItemStack icon, int generation) {
+        // Don't bother queueing icons that are already stale.
+        if (!isCurrent(inventory, generation)) return;
+
+        queue(new PendingIcon(inventory, slot, icon, generation));
+    }
+
+    /**
+     * Starts a new render generation for the specified inventory, making the icons
+     * of every previous generation stale.
+     *
+     * @param inventory The inventory being rendered.
+     * @return The new generation.
+     */
+    public int nextGeneration(Inventory inventory) {
+        return generations.merge(inventory, 1, (current, one) -> (current + 1) & Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns whether the specified generation is the current render generation of the inventory.
+     *
+     * @param inventory The inventory to check.
+     * @param generation The generation to check.
+     * @return True if icons of that generation may still be written into the inventory.
+     */
+    public boolean isCurrent(Inventory inventory, int generation) {
+        Integer current = generations.get(inventory);
+        return current != null && current == generation;
+    }
+
+    /**
+     * Forgets the render generation of the specified inventory, making all of its queued icons stale.
+     * This is called once the inventory is no longer displayed.
+     *
+     * @param inventory The inventory to forget.
+     */
+    public void forget(Inventory inventory) {
+        generations.remove(inventory);
+    }
+
+    /**
+     * Writes every queued icon into its inventory.
+     * <p>
+     * This must be called on the main thread.
+     */
+    public void flush() {
+        // Allow the next add to schedule a new flush before draining, so icons
+        // queued while we're flushing are never left behind.
+        scheduled.set(false);
+
+        PendingIcon icon;
+        while ((icon = pending.poll()) != null) {
+            if (icon.generation != UNCONDITIONAL && !isCurrent(icon.inventory, icon.generation)) continue;
+
+            icon.inventory.setItem(icon.slot, icon.icon);
+        }
+    }
+
+    /* INTERNAL */
+
+    /** The generation of icons that are written regardless of the inventory's current generation. */
+    private static final int UNCONDITIONAL = -1;
+
+    private void queue(PendingIcon icon) {
+        pending.add(icon);
+
+        if (scheduled.compareAndSet(false, true))
+            Bukkit.getScheduler().runTask(plugin, this::flush);
+    }
+
+    private static final class PendingIcon {
+        private final Inventory inventory;
+        private final int slot;
+        private final ItemStack icon;
+        private final int generation;
+
+        private PendingIcon(Inventory inventory, int slot, ItemStack icon, int generation) {
+            this.inventory = inventory;
+            this.slot = slot;
+            this.icon = icon;
+            this.generation = generation;
+        }
+    }
+
+}
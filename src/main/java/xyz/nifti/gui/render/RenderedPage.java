@@ -0,0 +1,72 @@
+package xyz.nifti.gui.render;
+
+import xyz.nifti.gui.SGMenu;
+import xyz.nifti.gui.buttons.SGButton;
+
+/**
+ * The result of rendering one page of an {@link SGMenu}: the button displayed in
+ * each slot, indexed by slot.
+ * <p>
+ * This doubles as the menu's click routing table - a click resolves its handler
+ * with a single array access, instead of re-checking stickied slots, pages and
+ * pagination buttons on every click.
+ *
+ * @see SGMenu#getRenderedPage(org.bukkit.inventory.Inventory)
+ *
+ * @version 1.2.4
+ */
+public final class RenderedPage {
+    private final int page;
+    private final SGButton[] buttons;
+    private final long paginationSlots;
+
+
+    /**
+     * Creates a rendered page.
+     *
+     * @param page The page that was rendered.
+     * @param buttons The button displayed in each slot of the page (or null).
+     * @param paginationSlots A bit mask of the slots holding pagination buttons.
+     */
+    public RenderedPage(int page, SGButton[] buttons, long paginationSlots) {
+        this.page = page;
+        this.buttons = buttons;
+        this.paginationSlots = paginationSlots;
+    }
+
+    /**
+     * @return The page that was rendered.
+     */
+    public int getPage() {
+        return page;
+    }
+
+    /**
+     * @return The number of slots of the page.
+     */
+    public int size() {
+        return buttons.length;
+    }
+
+    /**
+     * Returns the button displayed in the specified slot.
+     *
+     * @param slot The slot of the page.
+     * @return The button in that slot, or null if the slot is empty or outside the page.
+     */
+    public SGButton getButton(int slot) {
+        if (slot < 0 || slot >= buttons.length) return null;
+        return buttons[slot];
+    }
+
+    /**
+     * Returns whether the specified slot holds a pagination button.
+     *
+     * @param slot The slot of the page.
+     * @return True if the slot holds a pagination button.
+     */
+    public boolean isPaginationSlot(int slot) {
+        return slot >= 0 && slot < 64 && (paginationSlots & (1L << slot)) != 0;
+    }
+
+}
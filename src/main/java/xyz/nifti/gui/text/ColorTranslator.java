@@ -0,0 +1,85 @@
+package xyz.nifti.gui.text;
+
+import org.bukkit.ChatColor;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Translates ampersand (&amp;) color codes, remembering the result for text that is translated repeatedly.
+ * <p>
+ * Menus tend to translate the same constant names and lore lines every time they are built,
+ * so translations are kept in a bounded cache (of the most recently used texts). Translated
+ * text is also cached as its own translation, so translating it again - or text that was
+ * {@link #markTranslated(String) marked as translated} - never rescans it.
+ * <p>
+ * This class is thread-safe.
+ *
+ * @see ChatColor#translateAlternateColorCodes(char, String)
+ *
+ * @version 1.2.4
+ */
+public final class ColorTranslator {
+    /** The maximum number of texts whose translation is kept. */
+    private static final int MAX_CACHED_TEXTS = 4096;
+
+    private static final Map<String, String> CACHE = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_CACHED_TEXTS;
+        }
+    };
+
+
+    private ColorTranslator() {}
+
+    /**
+     * Translates the ampersand (&amp;) color codes of the specified text.
+     *
+     * @param text The text to translate.
+     * @return The text, with color codes in their sectional symbol (§) form.
+     */
+    public static String translate(String text) {
+        synchronized (CACHE) {
+            String translated = CACHE.get(text);
+            if (translated != null) return translated;
+        }
+
+        String translated = ChatColor.translateAlternateColorCodes('&', text);
+
+        synchronized (CACHE) {
+            CACHE.put(text, translated);
+            CACHE.putIfAbsent(translated, translated);
+        }
+
+        return translated;
+    }
+
+    /**
+     * Marks the specified text as already translated, so {@link #translate(String) translating}
+     * it returns the text as-is, without scanning it for color codes.
+     * <p>
+     * This is useful for text that is built already in its translated form - i.e. with
+     * {@link ChatColor} constants - and should be left untouched.
+     *
+     * @param text The translated text.
+     * @return The same text, for chaining.
+     */
+    public static String markTranslated(String text) {
+        synchronized (CACHE) {
+            CACHE.put(text, text);
+        }
+
+        return text;
+    }
+
+    /**
+     * Removes every cached translation.
+     */
+    public static void clear() {
+        synchronized (CACHE) {
+            CACHE.clear();
+        }
+    }
+
+}
@@ -0,0 +1,181 @@
+package xyz.nifti.gui.text;
+
+import java.util.*;
+
+/**
+ * A piece of text (such as an item name or lore line) with placeholders that are substituted
+ * by a map of placeholder keys to values.
+ * <p>
+ * Placeholder keys are matched literally (no regular expressions are involved). The text is
+ * split around the occurrences of a set of keys once, and that split is reused for every
+ * substitution with the same set of keys, so filling in a template is a single pass that
+ * appends its parts to one builder.
+ * <p>
+ * Templates are immutable and can be shared between threads. Use {@link #of(String)} to get
+ * a cached template for a piece of text.
+ *
+ * @version 1.2.4
+ */
+public final class PlaceholderTemplate {
+    /** The maximum number of templates kept by {@link #of(String)}. */
+    private static final int MAX_CACHED_TEMPLATES = 1024;
+    /** The maximum number of key sets a template keeps compiled parts for. */
+    private static final int MAX_COMPILED_KEY_SETS = 4;
+
+    private static final Map<String, PlaceholderTemplate> CACHE = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PlaceholderTemplate> eldest) {
+            return size() > MAX_CACHED_TEMPLATES;
+        }
+    };
+
+    private final String source;
+    private volatile Compiled[] compiled = new Compiled[0];
+
+
+    private PlaceholderTemplate(String source) {
+        this.source = source;
+    }
+
+    /**
+     * Returns the template for the specified text, creating it if it isn't cached yet.
+     *
+     * @param source The text of the template.
+     * @return The template.
+     */
+    public static PlaceholderTemplate of(String source) {
+        Objects.requireNonNull(source, "source");
+
+        synchronized (CACHE) {
+            return CACHE.computeIfAbsent(source, PlaceholderTemplate::new);
+        }
+    }
+
+    /**
+     * Substitutes the placeholders in each line of text.
+     *
+     * @param lines The lines to substitute placeholders in.
+     * @param placeholders The placeholder keys, mapped to the values to replace them with.
+     * @return A new list containing the substituted lines.
+     */
+    public static List<String> fill(List<String> lines, Map<String, String> placeholders) {
+        List<String> filled = new ArrayList<>(lines.size());
+        for (String line : lines)
+            filled.add(of(line).fill(placeholders));
+
+        return filled;
+    }
+
+    /**
+     * @return The text of the template, without any substitution.
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * Substitutes the placeholders in the template.
+     * <p>
+     * Where placeholders overlap, the one that starts first wins, and of the placeholders that
+     * start at the same position, the longest wins. Substituted values are never searched for
+     * further placeholders.
+     *
+     * @param placeholders The placeholder keys, mapped to the values to replace them with.
+     * @return The text of the template with every placeholder substituted.
+     */
+    public String fill(Map<String, String> placeholders) {
+        if (placeholders.isEmpty()) return source;
+
+        Compiled parts = compile(placeholders.keySet());
+        if (parts.keys.length == 0) return source;
+
+        StringBuilder builder = new StringBuilder(source.length() + 16 * parts.keys.length);
+        for (int i = 0; i < parts.keys.length; i++) {
+            builder.append(parts.literals[i]);
+            builder.append(placeholders.get(parts.keys[i]));
+        }
+
+        return builder.append(parts.literals[parts.keys.length]).toString();
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+
+    /* INTERNAL */
+
+    /**
+     * Returns the parts of the template split around the specified keys,
+     * splitting it only if it wasn't split around the same keys recently.
+     */
+    private Compiled compile(Set<String> keys) {
+        Compiled[] current = compiled;
+        for (Compiled parts : current)
+            if (parts.keySet.equals(keys)) return parts;
+
+        Compiled parts = split(Set.copyOf(keys));
+
+        // Publish a new array, so lookups never need to lock.
+        Compiled[] updated = new Compiled[Math.min(current.length + 1, MAX_COMPILED_KEY_SETS)];
+        updated[0] = parts;
+        System.arraycopy(current, 0, updated, 1, updated.length - 1);
+        compiled = updated;
+
+        return parts;
+    }
+
+    /**
+     * Splits the template around every occurrence of the specified keys.
+     */
+    private Compiled split(Set<String> keySet) {
+        List<String> literals = new ArrayList<>();
+        List<String> keys = new ArrayList<>();
+
+        int start = 0;
+        int position = 0;
+        while (position < source.length()) {
+            String match = null;
+            int matchIndex = source.length();
+
+            // Find the earliest (and, at the same position, longest) key after the current position.
+            for (String key : keySet) {
+                if (key.isEmpty()) continue;
+
+                int index = source.indexOf(key, position);
+                if (index < 0) continue;
+
+                if (index < matchIndex || (index == matchIndex && key.length() > match.length())) {
+                    match = key;
+                    matchIndex = index;
+                }
+            }
+
+            if (match == null) break;
+
+            literals.add(source.substring(start, matchIndex));
+            keys.add(match);
+            start = position = matchIndex + match.length();
+        }
+
+        literals.add(source.substring(start));
+        return new Compiled(keySet, literals.toArray(new String[0]), keys.toArray(new String[0]));
+    }
+
+    /**
+     * The template split around the occurrences of a set of keys: the literal text
+     * before each key, followed by the literal text after the last key.
+     */
+    private static final class Compiled {
+        private final Set<String> keySet;
+        private final String[] literals;
+        private final String[] keys;
+
+        private Compiled(Set<String> keySet, String[] literals, String[] keys) {
+            this.keySet = keySet;
+            this.literals = literals;
+            this.keys = keys;
+        }
+    }
+
+}
@@ -0,0 +1,136 @@
+package xyz.nifti.gui.item;
+
+import org.bukkit.OfflinePlayer;
+import org.bukkit.inventory.meta.SkullMeta;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import xyz.nifti.gui.render.IconScheduler;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SkullCacheTest {
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+    private final AtomicInteger resolutions = new AtomicInteger();
+
+    private IconScheduler scheduler;
+    private SkullCache cache;
+
+    @BeforeEach
+    public void setUp() {
+        scheduler = new IconScheduler(tasks::add, 1);
+        cache = new SkullCache(16, 1, TimeUnit.HOURS, () -> scheduler, owner -> {
+            resolutions.incrementAndGet();
+            return skull(owner);
+        });
+    }
+
+    @Test
+    public void concurrentLookupsShareOneResolution() {
+        OfflinePlayer owner = player();
+
+        CompletableFuture<SkullMeta> first = cache.get(owner, "a");
+        CompletableFuture<SkullMeta> second = cache.get(owner, "b");
+        runAll();
+
+        assertEquals(1, resolutions.get());
+        assertNotSame(first.join(), second.join());
+        assertSame(owner, first.join().getOwningPlayer());
+    }
+
+    @Test
+    public void cachedLookupsCompleteImmediately() {
+        OfflinePlayer owner = player();
+        cache.get(owner);
+        runAll();
+
+        CompletableFuture<SkullMeta> cached = cache.get(owner, "a");
+
+        assertTrue(cached.isDone());
+        assertEquals(1, resolutions.get());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void sharedLookupSurvivesCancellationOfItsMenu() {
+        OfflinePlayer owner = player();
+
+        // Keep the only in-flight slot busy, so the resolution stays queued.
+        scheduler.supply("blocker", () -> null);
+        CompletableFuture<SkullMeta> cancelled = cache.get(owner, "a");
+        CompletableFuture<SkullMeta> shared = cache.get(owner, "b");
+
+        scheduler.cancel("a");
+        runAll();
+
+        assertTrue(cancelled.isCompletedExceptionally());
+        assertSame(owner, shared.join().getOwningPlayer());
+        assertEquals(1, resolutions.get());
+    }
+
+    @Test
+    public void failedResolutionIsNotCached() {
+        OfflinePlayer owner = player();
+        SkullCache failing = new SkullCache(16, 1, TimeUnit.HOURS, () -> scheduler, player -> {
+            throw new IllegalStateException();
+        });
+
+        CompletableFuture<SkullMeta> lookup = failing.get(owner);
+        runAll();
+
+        assertTrue(lookup.isCompletedExceptionally());
+        assertEquals(0, failing.size());
+    }
+
+    @Test
+    public void leastRecentlyUsedOwnersAreEvicted() {
+        cache.setMaxSize(2);
+        OfflinePlayer first = player();
+        cache.get(first);
+        cache.get(player());
+        runAll();
+
+        cache.get(first);
+        cache.get(player());
+        runAll();
+
+        assertEquals(2, cache.size());
+        assertTrue(cache.get(first).isDone());
+    }
+
+    private void runAll() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) task.run();
+    }
+
+    private static OfflinePlayer player() {
+        UUID uuid = UUID.randomUUID();
+        return (OfflinePlayer) Proxy.newProxyInstance(OfflinePlayer.class.getClassLoader(), new Class<?>[]{OfflinePlayer.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "getUniqueId" -> uuid;
+                    case "equals" -> proxy == args[0];
+                    case "hashCode" -> uuid.hashCode();
+                    default -> null;
+                });
+    }
+
+    private static SkullMeta skull(OfflinePlayer owner) {
+        return (SkullMeta) Proxy.newProxyInstance(SkullMeta.class.getClassLoader(), new Class<?>[]{SkullMeta.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "clone" -> skull(owner);
+                    case "getOwningPlayer" -> owner;
+                    case "hasOwner" -> true;
+                    case "equals" -> proxy == args[0];
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    default -> null;
+                });
+    }
+
+}
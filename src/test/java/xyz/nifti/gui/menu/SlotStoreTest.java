@@ -0,0 +1,162 @@
+package xyz.nifti.gui.menu;
+
+import org.bukkit.inventory.ItemStack;
+import org.junit.jupiter.api.Test;
+import xyz.nifti.gui.buttons.SGButton;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SlotStoreTest {
+
+    @Test
+    public void putAndGet() {
+        SlotStore store = new SlotStore();
+        SGButton button = button();
+
+        assertNull(store.put(3, button));
+        assertSame(button, store.get(3));
+        assertNull(store.get(2));
+        assertNull(store.get(-1));
+        assertEquals(1, store.size());
+        assertEquals(3, store.getHighestFilledSlot());
+        assertEquals(0, store.getFirstFreeSlot());
+    }
+
+    @Test
+    public void putReplacesAndReturnsPrevious() {
+        SlotStore store = new SlotStore();
+        SGButton first = button();
+        SGButton second = button();
+
+        store.put(0, first);
+
+        assertSame(first, store.put(0, second));
+        assertSame(second, store.get(0));
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void negativeSlotsAreIgnored() {
+        SlotStore store = new SlotStore();
+
+        assertNull(store.put(-5, button()));
+        assertTrue(store.isEmpty());
+        assertNull(store.remove(-5));
+    }
+
+    @Test
+    public void firstFreeSlotSkipsFilledChunks() {
+        SlotStore store = new SlotStore();
+        for (int slot = 0; slot < 130; slot++) store.put(slot, button());
+
+        assertEquals(130, store.getFirstFreeSlot());
+
+        store.remove(70);
+        assertEquals(70, store.getFirstFreeSlot());
+
+        store.put(70, button());
+        assertEquals(130, store.getFirstFreeSlot());
+    }
+
+    @Test
+    public void highestFilledSlotSkipsReleasedChunks() {
+        SlotStore store = new SlotStore();
+        store.put(5, button());
+        store.put(1_000_000, button());
+
+        assertEquals(1_000_000, store.getHighestFilledSlot());
+
+        store.remove(1_000_000);
+        assertEquals(5, store.getHighestFilledSlot());
+        assertNull(store.get(1_000_000));
+
+        store.remove(5);
+        assertEquals(-1, store.getHighestFilledSlot());
+        assertTrue(store.isEmpty());
+    }
+
+    @Test
+    public void addAllFillsGapsThenAppends() {
+        SlotStore store = new SlotStore();
+        SGButton kept = button();
+        store.put(1, kept);
+        store.put(3, kept);
+
+        SGButton[] added = { button(), null, button(), button(), button() };
+        store.addAll(Arrays.asList(added).iterator(), added.length);
+
+        assertSame(added[0], store.get(0));
+        assertSame(kept, store.get(1));
+        assertSame(added[2], store.get(2));
+        assertSame(kept, store.get(3));
+        assertSame(added[3], store.get(4));
+        assertSame(added[4], store.get(5));
+        assertEquals(6, store.size());
+        assertEquals(5, store.getHighestFilledSlot());
+        assertEquals(6, store.getFirstFreeSlot());
+    }
+
+    @Test
+    public void addAllAcrossChunksWithWrongExpectation() {
+        SlotStore store = new SlotStore();
+        SGButton[] added = new SGButton[200];
+        for (int index = 0; index < added.length; index++) added[index] = button();
+
+        store.addAll(Arrays.asList(added).iterator(), 10);
+
+        for (int slot = 0; slot < added.length; slot++) assertSame(added[slot], store.get(slot));
+        assertEquals(200, store.size());
+        assertEquals(199, store.getHighestFilledSlot());
+        assertEquals(200, store.getFirstFreeSlot());
+
+        store.addAll(Collections.emptyIterator(), 0);
+        assertEquals(200, store.size());
+    }
+
+    @Test
+    public void removeIfRemovesMatchingSlots() {
+        SlotStore store = new SlotStore();
+        for (int slot = 0; slot < 150; slot++) store.put(slot, button());
+
+        store.removeIf(slot -> slot % 2 == 1 || slot >= 100);
+
+        assertEquals(50, store.size());
+        assertEquals(98, store.getHighestFilledSlot());
+        assertEquals(1, store.getFirstFreeSlot());
+        assertFalse(store.contains(99));
+        assertTrue(store.contains(98));
+    }
+
+    @Test
+    public void clearEmptiesTheStore() {
+        SlotStore store = new SlotStore();
+        store.put(10, button());
+        store.put(500, button());
+
+        store.clear();
+
+        assertTrue(store.isEmpty());
+        assertEquals(-1, store.getHighestFilledSlot());
+        assertEquals(0, store.getFirstFreeSlot());
+        assertNull(store.get(10));
+        assertEquals(1, store.getPageCount(45));
+    }
+
+    @Test
+    public void pageCountCoversHighestFilledSlot() {
+        SlotStore store = new SlotStore();
+        store.put(44, button());
+        assertEquals(1, store.getPageCount(45));
+
+        store.put(45, button());
+        assertEquals(2, store.getPageCount(45));
+    }
+
+    private static SGButton button() {
+        return new SGButton((ItemStack) null);
+    }
+
+}
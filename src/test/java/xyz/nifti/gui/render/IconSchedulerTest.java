@@ -0,0 +1,166 @@
+package xyz.nifti.gui.render;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IconSchedulerTest {
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+    private final List<String> ran = new ArrayList<>();
+
+    private IconScheduler scheduler;
+
+    @BeforeEach
+    public void setUp() {
+        scheduler = new IconScheduler(tasks::add, 2);
+    }
+
+    @Test
+    public void limitsJobsInFlight() {
+        for (int index = 0; index < 5; index++) scheduler.supply("menu", () -> null);
+
+        assertEquals(2, scheduler.getInFlight());
+        assertEquals(3, scheduler.getQueued());
+        assertEquals(2, tasks.size());
+
+        runNext();
+
+        assertEquals(2, scheduler.getInFlight());
+        assertEquals(2, scheduler.getQueued());
+
+        runAll();
+
+        assertEquals(0, scheduler.getInFlight());
+        assertEquals(0, scheduler.getQueued());
+    }
+
+    @Test
+    public void startsJobsInTurnBetweenOwners() {
+        scheduler.setMaxInFlight(1);
+        scheduler.supply("blocker", () -> null);
+
+        for (int index = 0; index < 3; index++) job("a", "a" + index);
+        job("b", "b0");
+        job("b", "b1");
+
+        runAll();
+
+        assertEquals(List.of("a0", "b0", "a1", "b1", "a2"), ran);
+    }
+
+    @Test
+    public void completesFuturesWithResults() {
+        CompletableFuture<String> result = scheduler.supply(null, () -> "icon");
+        CompletableFuture<String> failed = scheduler.supply(null, () -> {
+            throw new IllegalStateException();
+        });
+
+        runAll();
+
+        assertEquals("icon", result.join());
+        assertTrue(failed.isCompletedExceptionally());
+    }
+
+    @Test
+    public void cancelDropsQueuedJobsOfOwner() {
+        scheduler.setMaxInFlight(1);
+        scheduler.supply("blocker", () -> null);
+
+        CompletableFuture<String> cancelled = job("closed", "closed");
+        CompletableFuture<String> kept = job("open", "open");
+
+        scheduler.cancel("closed");
+
+        assertTrue(cancelled.isCancelled());
+        assertEquals(1, scheduler.getQueued());
+
+        runAll();
+
+        assertEquals(List.of("open"), ran);
+        assertEquals("open", kept.join());
+    }
+
+    @Test
+    public void skipsJobsCancelledBeforeTheyStart() {
+        scheduler.setMaxInFlight(1);
+        scheduler.supply("blocker", () -> null);
+
+        job("menu", "skipped").cancel(false);
+        job("menu", "run");
+
+        runAll();
+
+        assertEquals(List.of("run"), ran);
+    }
+
+    @Test
+    public void cancelAllDropsEveryQueuedJob() {
+        scheduler.setMaxInFlight(1);
+        scheduler.supply("blocker", () -> null);
+
+        CompletableFuture<String> first = job("a", "a");
+        CompletableFuture<String> second = job("b", "b");
+
+        scheduler.cancelAll();
+        runAll();
+
+        assertTrue(first.isCancelled());
+        assertTrue(second.isCancelled());
+        assertTrue(ran.isEmpty());
+        assertEquals(0, scheduler.getQueued());
+    }
+
+    @Test
+    public void raisingTheLimitStartsQueuedJobs() {
+        scheduler.setMaxInFlight(1);
+        for (int index = 0; index < 3; index++) scheduler.supply("menu", () -> null);
+
+        assertEquals(1, tasks.size());
+
+        scheduler.setMaxInFlight(3);
+
+        assertEquals(3, tasks.size());
+        assertEquals(0, scheduler.getQueued());
+    }
+
+    @Test
+    public void rejectsLimitBelowOne() {
+        assertThrows(IllegalArgumentException.class, () -> scheduler.setMaxInFlight(0));
+    }
+
+    @Test
+    public void cancelsJobsRejectedByTheExecutor() {
+        IconScheduler shutDown = new IconScheduler(task -> {
+            throw new RejectedExecutionException();
+        }, 1);
+
+        CompletableFuture<Object> result = shutDown.supply(null, () -> "icon");
+
+        assertTrue(result.isCancelled());
+        assertEquals(0, shutDown.getInFlight());
+    }
+
+    private CompletableFuture<String> job(String owner, String name) {
+        return scheduler.supply(owner, () -> {
+            ran.add(name);
+            return name;
+        });
+    }
+
+    private void runNext() {
+        tasks.poll().run();
+    }
+
+    private void runAll() {
+        while (!tasks.isEmpty()) runNext();
+    }
+
+}